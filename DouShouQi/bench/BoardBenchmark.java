@@ -0,0 +1,232 @@
+/* file: BoardBenchmark.java
+ *
+ * micro benchmarks of the Board primitives, run over a reproducible corpus
+ * of positions (random games from the starting position with a fixed
+ * seed).  each benchmark runs warmup iterations and then measured
+ * iterations of a fixed length, and reports the average time per
+ * operation and the bytes allocated per operation (the equivalent of
+ * jmh's -prof gc).  the results are also written as json, in the same
+ * shape as jmh's -rf json output, so that runs of different releases can
+ * be compared.
+ *
+ * (jmh itself cannot be used: its generator rejects benchmark classes in
+ * the default package, which is where every class of the game lives.)
+ *
+ * usage:
+ *   java BoardBenchmark [-wi 5] [-i 10] [-t 1000] [-n 1000] [-seed 2016]
+ *                       [-o results.json] [name...]
+ *   -wi/-i are the warmup/measured iterations, -t is the length of one
+ *   iteration in ms, -n is the corpus size, and names select benchmarks.
+ */
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import com.sun.management.ThreadMXBean;
+
+public class BoardBenchmark {
+
+    //-----------------------------------------------------------------------
+    // one benchmark: op(i) performs one operation on corpus position i and
+    // returns something derived from it (so the JIT cannot remove it).
+    private static abstract class Bench {
+        final String  mName;
+        Bench ( String name )  { mName = name; }
+        abstract long op ( int i );
+    }
+    //-----------------------------------------------------------------------
+    private final Board    mCorpus[];
+    private final Board    mScratch[];     //boards that may be changed
+    private final int      mReversible[];  //a move whose reverse is legal (or Move.fNone)
+    private final int      mMoves[] = new int[ Board.fMaxMoves ];
+    private volatile long  mSink;          //consumes results
+    //-----------------------------------------------------------------------
+    // build the corpus: n positions reached by random legal moves.
+    BoardBenchmark ( int n, long seed ) {
+        Random  rnd = new Random( seed );
+        mCorpus     = new Board[ n ];
+        mScratch    = new Board[ n ];
+        mReversible = new int[ n ];
+        for (int i = 0; i < n; i++) {
+            Board  b = new Board();
+            int    plies = rnd.nextInt( 80 );
+            for (int p = 0; p < plies && !SearchEngine.isLost( b ); p++) {
+                int  k = b.generateMoves( side( b ), mMoves );
+                if (k == 0)    break;
+                b.makeMove( mMoves[ rnd.nextInt( k ) ] );
+            }
+            mCorpus[ i ]     = new Board( b );
+            mScratch[ i ]    = new Board( b );
+            mReversible[ i ] = findReversible( b );
+        }
+    }
+    //-----------------------------------------------------------------------
+    private static Board.Color side ( Board b ) {
+        return b.mBlacksTurn ? Board.Color.Black : Board.Color.Red;
+    }
+    //-----------------------------------------------------------------------
+    private int findReversible ( Board b ) {
+        int  k = b.generateMoves( side( b ), mMoves );
+        for (int j = 0; j < k; j++) {
+            int  m = mMoves[ j ];
+            if (Move.isCapture( m ))    continue;
+            Board  t = new Board( b );
+            t.doMove( Move.fromRow( m ), Move.fromCol( m ), Move.toRow( m ), Move.toCol( m ) );
+            if (t.isValidMove( Move.toRow( m ), Move.toCol( m ), Move.fromRow( m ), Move.fromCol( m ) ))
+                return m;
+        }
+        return Move.fNone;
+    }
+    //-----------------------------------------------------------------------
+    private List<Bench> all ( ) {
+        List<Bench>  list = new ArrayList<Bench>();
+        list.add( new Bench( "isValidMove" ) {  //every pair of squares
+            long op ( int i ) {
+                Board  b = mCorpus[ i ];
+                long   n = 0;
+                for (int from = 0; from < Board.fRows * Board.fCols; from++) {
+                    for (int to = 0; to < Board.fRows * Board.fCols; to++) {
+                        if (b.isValidMove( from / Board.fCols, from % Board.fCols,
+                                           to / Board.fCols, to % Board.fCols ))
+                            n++;
+                    }
+                }
+                return n;
+            }
+        } );
+        list.add( new Bench( "doMove" ) {  //a move and its reverse
+            long op ( int i ) {
+                int  m = mReversible[ i ];
+                if (m == Move.fNone)    return 0;
+                Board  b = mScratch[ i ];
+                b.doMove( Move.fromRow( m ), Move.fromCol( m ), Move.toRow( m ), Move.toCol( m ) );
+                b.doMove( Move.toRow( m ), Move.toCol( m ), Move.fromRow( m ), Move.fromCol( m ) );
+                return m;
+            }
+        } );
+        list.add( new Bench( "makeUnmakeMove" ) {  //every legal move
+            long op ( int i ) {
+                Board  b = mScratch[ i ];
+                int    k = b.generateMoves( side( b ), mMoves );
+                long   h = 0;
+                for (int j = 0; j < k; j++) {
+                    b.makeMove( mMoves[ j ] );
+                    h += b.mKey;
+                    b.unmakeMove();
+                }
+                return h;
+            }
+        } );
+        list.add( new Bench( "generateMoves" ) {
+            long op ( int i ) {
+                Board  b = mCorpus[ i ];
+                return b.generateMoves( side( b ), mMoves );
+            }
+        } );
+        list.add( new Bench( "hashCode" ) {
+            long op ( int i ) {
+                return mCorpus[ i ].hashCode();
+            }
+        } );
+        list.add( new Bench( "equalsBoard" ) {  //equal contents: the slow case
+            long op ( int i ) {
+                return mCorpus[ i ].equalsBoard( mScratch[ i ] ) ? 1 : 0;
+            }
+        } );
+        list.add( new Bench( "copy" ) {
+            long op ( int i ) {
+                return new Board( mCorpus[ i ] ).mKey;
+            }
+        } );
+        list.add( new Bench( "toString" ) {
+            long op ( int i ) {
+                return mCorpus[ i ].toString().length();
+            }
+        } );
+        list.add( new Bench( "countBlackRed" ) {
+            long op ( int i ) {
+                return mCorpus[ i ].countBlack() + mCorpus[ i ].countRed();
+            }
+        } );
+        return list;
+    }
+    //-----------------------------------------------------------------------
+    // run one iteration of about the given length; returns ns/op and
+    // stores B/op in alloc[0].
+    private double iteration ( Bench b, long millis, ThreadMXBean mx, double alloc[] ) {
+        long  tid = Thread.currentThread().getId();
+        long  bytes0 = mx.getThreadAllocatedBytes( tid );
+        long  start = System.nanoTime(), end = start + millis * 1000000L;
+        long  ops = 0, now, sink = 0;
+        int   n = mCorpus.length;
+        do {
+            for (int i = 0; i < n; i++)    sink += b.op( i );
+            ops += n;
+            now = System.nanoTime();
+        } while (now < end);
+        mSink += sink;
+        alloc[ 0 ] = (double)(mx.getThreadAllocatedBytes( tid ) - bytes0) / ops;
+        return (double)(now - start) / ops;
+    }
+    //-----------------------------------------------------------------------
+    public static void main ( String[] args ) throws IOException {
+        int     warmups = 5, iterations = 10, n = 1000;
+        long    millis = 1000, seed = 2016;
+        String  json = "results.json";
+        List<String>  names = new ArrayList<String>();
+        for (int a = 0; a < args.length; a++) {
+            if (args[ a ].equals( "-wi" ))         warmups    = Integer.parseInt( args[ ++a ] );
+            else if (args[ a ].equals( "-i" ))     iterations = Integer.parseInt( args[ ++a ] );
+            else if (args[ a ].equals( "-t" ))     millis     = Long.parseLong( args[ ++a ] );
+            else if (args[ a ].equals( "-n" ))     n          = Integer.parseInt( args[ ++a ] );
+            else if (args[ a ].equals( "-seed" ))  seed       = Long.parseLong( args[ ++a ] );
+            else if (args[ a ].equals( "-o" ))     json       = args[ ++a ];
+            else                                   names.add( args[ a ] );
+        }
+
+        if (!(ManagementFactory.getThreadMXBean() instanceof ThreadMXBean))
+            throw new IllegalStateException( "allocation counters are not available" );
+        ThreadMXBean  mx = (ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+        BoardBenchmark  bb = new BoardBenchmark( n, seed );
+        PrintWriter  out = new PrintWriter( new FileWriter( json ) );
+        out.println( "[" );
+        boolean  first = true;
+        for (Bench b : bb.all()) {
+            if (!names.isEmpty() && !names.contains( b.mName ))    continue;
+            double  alloc[] = new double[ 1 ];
+            for (int w = 0; w < warmups; w++)    bb.iteration( b, millis, mx, alloc );
+            double  t[] = new double[ iterations ];
+            double  bytes = 0;
+            for (int i = 0; i < iterations; i++) {
+                t[ i ] = bb.iteration( b, millis, mx, alloc );
+                bytes += alloc[ 0 ] / iterations;
+            }
+            double  mean = 0, var = 0;
+            for (double x : t)    mean += x / iterations;
+            for (double x : t)    var  += (x - mean) * (x - mean) / Math.max( 1, iterations - 1 );
+            double  error = 2.576 * Math.sqrt( var / iterations );  //99% (normal approximation)
+            System.out.printf( "%-16s %12.2f +- %8.2f ns/op %10.1f B/op%n", b.mName, mean, error, bytes );
+
+            if (!first)    out.println( "," );
+            first = false;
+            out.printf( "  {\"benchmark\": \"BoardBenchmark.%s\", \"mode\": \"avgt\", \"threads\": 1,"
+                    + " \"forks\": 1, \"warmupIterations\": %d, \"measurementIterations\": %d,"
+                    + " \"measurementTime\": \"%d ms\", \"params\": {\"positions\": \"%d\", \"seed\": \"%d\"},%n",
+                    b.mName, warmups, iterations, millis, n, seed );
+            out.printf( "   \"primaryMetric\": {\"score\": %.4f, \"scoreError\": %.4f, \"scoreUnit\": \"ns/op\","
+                    + " \"rawData\": [%s]},%n", mean, error, Arrays.toString( t ) );
+            out.printf( "   \"secondaryMetrics\": {\"gc.alloc.rate.norm\": {\"score\": %.4f, \"scoreUnit\": \"B/op\"}}}",
+                    bytes );
+        }
+        out.println();
+        out.println( "]" );
+        out.close();
+        System.out.println( "results written to " + json + " (" + bb.mSink + ")" );
+    }
+}
@@ -0,0 +1,198 @@
+/* file: BatchEvaluator.java
+ *
+ * scores many stored positions at once, e.g., for analytics over millions
+ * of positions from games.  the positions are in the 16-byte binary form
+ * of Notation, either in a long[] (the high and then the low long of each
+ * position) or in a ByteBuffer (e.g., a file mapped into memory), and the
+ * scores (for the side to move) go into an int[].
+ *
+ * a score is either the static evaluation (depth 0) or that of a search
+ * of a fixed depth.  the positions are handed out to a pool of threads in
+ * blocks; each thread sets up every position of its blocks on one Board
+ * of its own (and searches it with one SearchEngine of its own), so
+ * nothing is allocated per position.
+ *
+ * e.g., java BatchEvaluator positions.bin 4 8  (depth and threads; without
+ * a file, positions from random games are scored)
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchEvaluator {
+
+    public static final int  fInvalid = Integer.MIN_VALUE;  //the score of a position that is not valid
+
+    private static final int  fBlock = 1024;  //positions handed out at a time
+    private static final int  fChunkPositions = 1 << 26;  //mapped at a time (1 GB)
+    //-----------------------------------------------------------------------
+    private final int  mDepth;
+    private final int  mThreads;
+    private final int  mHashMb;
+    private final ExecutorService  mPool;
+    //the board and engine of each thread of the pool
+    private final ThreadLocal<Board>         mBoards = new ThreadLocal<Board>() {
+        protected Board initialValue ( ) {
+            return new Board();
+        }
+    };
+    private final ThreadLocal<SearchEngine>  mEngines = new ThreadLocal<SearchEngine>() {
+        protected SearchEngine initialValue ( ) {
+            return new SearchEngine( new TranspositionTable( mHashMb ) );
+        }
+    };
+    //-----------------------------------------------------------------------
+    // score by a search of the given depth (0 for the static evaluation), on
+    // the given # of threads, each with a transposition table of hashMb.
+    public BatchEvaluator ( int depth, int threads, int hashMb ) {
+        mDepth   = Math.max( 0, Math.min( depth, SearchEngine.fMaxDepth ) );
+        mThreads = Math.max( 1, threads );
+        mHashMb  = hashMb;
+        mPool    = Executors.newFixedThreadPool( mThreads, new ThreadFactory() {
+            public Thread newThread ( Runnable r ) {
+                Thread  t = new Thread( r, "batch evaluator" );
+                t.setDaemon( true );
+                return t;
+            }
+        } );
+    }
+    //-----------------------------------------------------------------------
+    public int getDepth ( )    { return mDepth;    }
+    public int getThreads ( )  { return mThreads;  }
+    //-----------------------------------------------------------------------
+    // score the positions in packed (two longs each, see Notation) into
+    // out[ 0 .. packed.length / 2 ).
+    public void score ( final long packed[], int out[] ) {
+        score( out, 0, packed.length / 2, new Positions() {
+            public long high ( int i )  { return packed[ 2 * i ];      }
+            public long low ( int i )   { return packed[ 2 * i + 1 ];  }
+        } );
+    }
+    //-----------------------------------------------------------------------
+    // score the count positions (16 bytes each) starting at the position of
+    // buf into out[ offset .. offset + count ).  buf is not changed.
+    public void score ( ByteBuffer buf, int out[], int offset, int count ) {
+        final ByteBuffer  b = buf.duplicate();
+        final int  base = buf.position();
+        score( out, offset, count, new Positions() {
+            public long high ( int i )  { return b.getLong( base + i * Notation.fBytes );      }
+            public long low ( int i )   { return b.getLong( base + i * Notation.fBytes + 8 );  }
+        } );
+    }
+    //-----------------------------------------------------------------------
+    // score the positions of a file of binary positions, from position #
+    // first on, into out (as many as fit, or as there are).  the file is
+    // mapped a chunk at a time, so it may be much larger than the heap.
+    // returns the # of positions scored.
+    public int score ( File file, long first, int out[] ) throws IOException {
+        RandomAccessFile  f = new RandomAccessFile( file, "r" );
+        try {
+            FileChannel  ch = f.getChannel();
+            long  total = ch.size() / Notation.fBytes;
+            int   n = (int)Math.max( 0, Math.min( out.length, total - first ) );
+            for (int done = 0; done < n; ) {
+                int  count = Math.min( fChunkPositions, n - done );
+                ByteBuffer  buf = ch.map( FileChannel.MapMode.READ_ONLY,
+                                          (first + done) * Notation.fBytes, (long)count * Notation.fBytes );
+                score( buf, out, done, count );
+                done += count;
+            }
+            return n;
+        } finally {
+            f.close();
+        }
+    }
+    //-----------------------------------------------------------------------
+    // stop the threads (the evaluator cannot be used after this).
+    public void close ( ) {
+        mPool.shutdown();
+    }
+
+    //=======================================================================
+    // where the positions come from.
+    private interface Positions {
+        long high ( int i );
+        long low ( int i );
+    }
+    //-----------------------------------------------------------------------
+    // score positions [0, count) of in into out[ offset .. offset + count ).
+    private void score ( final int out[], final int offset, final int count, final Positions in ) {
+        final AtomicInteger  next = new AtomicInteger();
+        Runnable  task = new Runnable() {
+            public void run ( ) {
+                Board         b = mBoards.get();
+                SearchEngine  e = mDepth > 0 ? mEngines.get() : null;
+                for (int start; (start = next.getAndAdd( fBlock )) < count; ) {
+                    int  end = Math.min( count, start + fBlock );
+                    for (int i = start; i < end; i++) {
+                        try {
+                            Notation.unpack( b, in.low( i ), in.high( i ) );
+                        } catch (IllegalArgumentException ex) {
+                            out[ offset + i ] = fInvalid;
+                            continue;
+                        }
+                        out[ offset + i ] = (e == null) ? Evaluation.evaluate( b ) : e.score( b, mDepth );
+                    }
+                }
+            }
+        };
+        Future<?>  f[] = new Future<?>[ mThreads ];
+        for (int i = 0; i < mThreads; i++)
+            f[ i ] = mPool.submit( task );
+        for (int i = 0; i < mThreads; i++) {
+            try {
+                f[ i ].get();
+            } catch (Exception ex) {
+                throw new IllegalStateException( "batch evaluation failed", ex );
+            }
+        }
+    }
+    //-----------------------------------------------------------------------
+    public static void main ( String[] args ) throws IOException {
+        int  depth   = args.length > 1 ? Integer.parseInt( args[ 1 ] ) : 0;
+        int  threads = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : Runtime.getRuntime().availableProcessors();
+        BatchEvaluator  be = new BatchEvaluator( depth, threads, 4 );
+        int   out[];
+        long  start;
+        if (args.length > 0 && !args[ 0 ].equals( "-" )) {
+            File  f = new File( args[ 0 ] );
+            out = new int[ (int)Math.min( Integer.MAX_VALUE - 8, f.length() / Notation.fBytes ) ];
+            start = System.currentTimeMillis();
+            be.score( f, 0, out );
+        } else {  //positions along random games
+            Random  rnd = new Random( 2016 );
+            long    packed[] = new long[ 2 * 1000000 ];
+            Board   b = new Board();
+            int     moves[] = new int[ Board.fMaxMoves ];
+            for (int i = 0; i < packed.length; i += 2) {
+                int  n = b.generateMoves( b.mBlacksTurn ? Board.Color.Black : Board.Color.Red, moves );
+                if (n == 0 || b.isGameOver() || b.getUndoCount() > 200)    b = new Board();
+                else    b.makeMove( moves[ rnd.nextInt( n ) ] );
+                packed[ i ]     = Notation.packHigh( b );
+                packed[ i + 1 ] = Notation.packLow( b );
+            }
+            out = new int[ packed.length / 2 ];
+            start = System.currentTimeMillis();
+            be.score( packed, out );
+        }
+        long  ms = Math.max( 1, System.currentTimeMillis() - start );
+        long  sum = 0;
+        int   invalid = 0;
+        for (int s : out) {
+            if (s == fInvalid)    invalid++;
+            else                  sum += s;
+        }
+        System.out.println( out.length + " positions (" + invalid + " invalid) at depth " + depth + " on "
+                + threads + " threads in " + ms + " ms, " + out.length * 1000L / ms + " positions/s, mean score "
+                + (out.length > invalid ? sum / (out.length - invalid) : 0) );
+        be.close();
+    }
+}
@@ -0,0 +1,293 @@
+/* file: BitBoard.java
+ *
+ * an alternative representation of the dou shou qi board.  the 9x7 board
+ * has exactly 63 squares so every set of squares fits into a single long.
+ * square s = r * Board.fCols + c is bit (1L << s).  there is one long per
+ * (moveable) piece, one long per color (occupancy), and constant masks for
+ * the underlying terrain, so occupancy, color, and terrain tests are single
+ * AND operations and copying a board is a handful of long stores.
+ *
+ * the public interface mirrors Board so either can be used by callers.
+ */
+public class BitBoard {
+
+    public static final int   fSquares = Board.fRows * Board.fCols;  //63
+    public static final long  fAll     = (1L << fSquares) - 1;       //every square
+
+    //constant terrain masks (these never change)
+    public static final long  fWater;
+    public static final long  fGround;
+    public static final long  fRTrap;
+    public static final long  fBTrap;
+    public static final long  fRDen;
+    public static final long  fBDen;
+    public static final long  fTraps;
+
+    //terrain (e.g., Board.cWater) of each square, indexed by square
+    private static final byte  fTerrain[] = new byte[ fSquares ];
+
+    //directions for fStep and fJump
+    public static final int  fUp = 0, fDown = 1, fLeft = 2, fRight = 3;
+    //fStep[s*4+d] is the square adjacent to s in direction d (or -1).
+    // (these are also used by Board.generateMoves.)
+    static final int   fStep[]     = new int[ fSquares * 4 ];
+    //fJump[s*4+d] is the landing square of a lion/tiger jump across the
+    // river from s in direction d (or -1), and fJumpPath[s*4+d] is the mask
+    // of the water squares that are jumped over.
+    static final int   fJump[]     = new int[ fSquares * 4 ];
+    static final long  fJumpPath[] = new long[ fSquares * 4 ];
+
+    static {
+        //take the terrain from Board so there is only one definition of
+        // the layout.  (not from a new Board: its pieces are evaluated, and
+        // Evaluation reads these masks.)
+        long  water = 0, ground = 0, rTrap = 0, bTrap = 0, rDen = 0, bDen = 0;
+        for (int r = 0; r < Board.fRows; r++) {
+            for (int c = 0; c < Board.fCols; c++) {
+                int   s = r * Board.fCols + c;
+                int   t = Board.getTerrain( r, c );
+                long  bit = 1L << s;
+                fTerrain[ s ] = (byte)t;
+                switch (t) {
+                    case Board.cWater:   water  |= bit;  break;
+                    case Board.cGround:  ground |= bit;  break;
+                    case Board.cRTrap:   rTrap  |= bit;  break;
+                    case Board.cBTrap:   bTrap  |= bit;  break;
+                    case Board.cRDen:    rDen   |= bit;  break;
+                    case Board.cBDen:    bDen   |= bit;  break;
+                }
+            }
+        }
+        fWater = water;  fGround = ground;  fRTrap = rTrap;  fBTrap = bTrap;
+        fRDen = rDen;    fBDen = bDen;      fTraps = rTrap | bTrap;
+
+        final int  dr[] = { -1, 1, 0, 0 };
+        final int  dc[] = { 0, 0, -1, 1 };
+        for (int s = 0; s < fSquares; s++) {
+            int  r = s / Board.fCols, c = s % Board.fCols;
+            for (int d = 0; d < 4; d++) {
+                int  i = s * 4 + d;
+                fStep[ i ] = fJump[ i ] = -1;
+                int  nr = r + dr[ d ], nc = c + dc[ d ];
+                if (!onBoard( nr, nc ))    continue;
+                fStep[ i ] = nr * Board.fCols + nc;
+                //a jump starts on land next to the river and crosses only water
+                if ((fWater & (1L << s)) != 0)    continue;
+                long  path = 0;
+                while (onBoard( nr, nc ) && (fWater & (1L << (nr * Board.fCols + nc))) != 0) {
+                    path |= 1L << (nr * Board.fCols + nc);
+                    nr += dr[ d ];
+                    nc += dc[ d ];
+                }
+                if (path != 0 && onBoard( nr, nc )) {
+                    fJump[ i ] = nr * Board.fCols + nc;
+                    fJumpPath[ i ] = path;
+                }
+            }
+        }
+    }
+    //-----------------------------------------------------------------------
+    //mPieces[p] is the set of squares occupied by piece p (e.g., Board.rLion).
+    // each piece appears at most once, but a long per piece keeps this
+    // independent of that.
+    protected long     mPieces[]   = new long[ Board.bElephant + 1 ];
+    protected long     mRed        = 0;     //all red pieces
+    protected long     mBlack      = 0;     //all black pieces
+    protected boolean  mBlacksTurn = true;  //by convention, black goes first
+    //-----------------------------------------------------------------------
+    // init to the standard starting position.
+    public BitBoard ( ) {
+        this( new Board() );
+    }
+    //-----------------------------------------------------------------------
+    // convert from the byte array representation.
+    public BitBoard ( final Board other ) {
+        for (int r = 0; r < Board.fRows; r++) {
+            for (int c = 0; c < Board.fCols; c++) {
+                int  p = other.getPiece( r, c );
+                if (p != Board.rbNone)    add( p, r * Board.fCols + c );
+            }
+        }
+        mBlacksTurn = other.mBlacksTurn;
+    }
+    //-----------------------------------------------------------------------
+    // copy ctor. make a separate, independent copy.
+    public BitBoard ( final BitBoard other ) {
+        System.arraycopy( other.mPieces, 0, mPieces, 0, mPieces.length );
+        mRed        = other.mRed;
+        mBlack      = other.mBlack;
+        mBlacksTurn = other.mBlacksTurn;
+    }
+    //-----------------------------------------------------------------------
+    // convert back to the byte array representation.
+    public Board toBoard ( ) {
+        Board  b = new Board();
+        for (int s = 0; s < fSquares; s++)
+            b.mBoard[ s / Board.fCols ][ s % Board.fCols ] = (byte)(fTerrain[ s ] | getPiece( s ));
+        b.mBlacksTurn = mBlacksTurn;
+        b.refresh();
+        return b;
+    }
+    //-----------------------------------------------------------------------
+    private static boolean onBoard ( int r, int c ) {
+        return r >= 0 && r < Board.fRows && c >= 0 && c < Board.fCols;
+    }
+    //-----------------------------------------------------------------------
+    private void add ( int p, int s ) {
+        long  bit = 1L << s;
+        mPieces[ p ] |= bit;
+        if (p > Board.rElephant)    mBlack |= bit;
+        else                        mRed   |= bit;
+    }
+    //-----------------------------------------------------------------------
+    private void remove ( int p, int s ) {
+        long  bit = ~(1L << s);
+        mPieces[ p ] &= bit;
+        mRed   &= bit;
+        mBlack &= bit;
+    }
+    //-----------------------------------------------------------------------
+    // return the specific (moveable) piece (e.g., bWolf or rbNone) at the
+    // indicated square (0..62).
+    public int getPiece ( int s ) {
+        long  bit = 1L << s;
+        int   p;
+        if ((mRed & bit) != 0)          p = Board.rRat;
+        else if ((mBlack & bit) != 0)   p = Board.bRat;
+        else                            return Board.rbNone;
+        while ((mPieces[ p ] & bit) == 0)    p++;
+        return p;
+    }
+    //-----------------------------------------------------------------------
+    // return the specific (moveable) piece (e.g., bWolf or rbNone) at the
+    // indicated position.
+    public int getPiece ( int r, int c ) {
+        if (!onBoard( r, c ))    return Board.rbNone;
+        return getPiece( r * Board.fCols + c );
+    }
+    //-----------------------------------------------------------------------
+    // given a piece, return its rank (or 0 for an unknown piece).
+    // rat is 1, cat is 2, dog is 3, wolf is 4, leopard is 5, tiger is 6, lion is 7, elephant is 8.
+    public int getRank ( int p ) {
+        if (p <= Board.rbNone || p > Board.bElephant)    return 0;
+        return p > Board.rElephant ? p - Board.rElephant : p;
+    }
+    //-----------------------------------------------------------------------
+    // return the rank of the piece at the specified position (or 0 for none).
+    public int getRank ( int r, int c ) {
+        return getRank( getPiece( r, c ) );
+    }
+    //-----------------------------------------------------------------------
+    // returns what appears on the underlying board at the specified position
+    // (e.g., cWater), or cNone if out of bounds.
+    public int getBoard ( int r, int c ) {
+        if (!onBoard( r, c ))    return Board.cNone;
+        return fTerrain[ r * Board.fCols + c ];
+    }
+    //-----------------------------------------------------------------------
+    // returns the color of the piece (or Color.None) at the specified location.
+    public Board.Color getColor ( int r, int c ) {
+        if (!onBoard( r, c ))    return Board.Color.None;
+        long  bit = 1L << (r * Board.fCols + c);
+        if ((mRed & bit) != 0)      return Board.Color.Red;
+        if ((mBlack & bit) != 0)    return Board.Color.Black;
+        return Board.Color.None;
+    }
+    //-----------------------------------------------------------------------
+    // returns t if this spot does not have any (moveable) piece on it;
+    // f otherwise or if out of bounds.
+    public boolean isEmpty ( int r, int c ) {
+        if (!onBoard( r, c ))    return false;
+        return ((mRed | mBlack) & (1L << (r * Board.fCols + c))) == 0;
+    }
+    //-----------------------------------------------------------------------
+    // the squares occupied by red (or black) pieces, and by piece p.
+    public long getRed    ( )        { return mRed;          }
+    public long getBlack  ( )        { return mBlack;        }
+    public long getPieces ( int p )  { return mPieces[ p ];  }
+    //-----------------------------------------------------------------------
+    // returns true if the proposed move is valid (regardless of whose turn it is).
+    // false otherwise.  the geometry is checked with the step/jump tables and
+    // the path mask; the rest is the same CaptureTable lookup used by Board.
+    protected boolean isValidMove ( int fromRow, int fromCol, int toRow, int toCol ) {
+        if (!onBoard( fromRow, fromCol ) || !onBoard( toRow, toCol ))    return false;
+        int  from = fromRow * Board.fCols + fromCol;
+        int  to   = toRow * Board.fCols + toCol;
+        int  p    = getPiece( from );
+        if (p == Board.rbNone)    return false;
+
+        boolean  step = false;
+        for (int d = 0; d < 4 && !step; d++)
+            step = fStep[ from * 4 + d ] == to;
+        if (!step) {
+            //otherwise, it must be a lion or tiger jump that no rat blocks
+            int  rank = getRank( p );
+            if (rank != Board.rLion && rank != Board.rTiger)    return false;
+            int  d = 0;
+            while (d < 4 && fJump[ from * 4 + d ] != to)    d++;
+            if (d == 4)    return false;
+            if (((mRed | mBlack) & fJumpPath[ from * 4 + d ]) != 0)    return false;
+        }
+        return CaptureTable.canMove( p, getPiece( to ), fTerrain[ from ], fTerrain[ to ] );
+    }
+    //-----------------------------------------------------------------------
+    // perform the specified move but only if it's valid.
+    // returns true if the proposed move is valid (regardless of whose turn it is).
+    // false otherwise.
+    public boolean doMove ( int fromRow, int fromCol, int toRow, int toCol ) {
+        if (!isValidMove( fromRow, fromCol, toRow, toCol ))    return false;
+        int  from = fromRow * Board.fCols + fromCol;
+        int  to   = toRow * Board.fCols + toCol;
+        int  p = getPiece( from );
+        int  q = getPiece( to );
+        if (q != Board.rbNone)    remove( q, to );
+        remove( p, from );
+        add( p, to );
+        return true;
+    }
+    //-----------------------------------------------------------------------
+    // returns the number of black (red) pieces remaining on the board.
+    public int countBlack ( )  { return Long.bitCount( mBlack );  }
+    public int countRed   ( )  { return Long.bitCount( mRed );    }
+    //-----------------------------------------------------------------------
+    // returns true if red (black) is a winner (regardless of whose turn it is).
+    // false otherwise.
+    public boolean isRedWinner ( ) {
+        return (mRed & fBDen) != 0 || mBlack == 0;
+    }
+    public boolean isBlackWinner ( ) {
+        return (mBlack & fRDen) != 0 || mRed == 0;
+    }
+    //-----------------------------------------------------------------------
+    // this is a "proper" equals method.
+    @Override
+    public boolean equals ( Object other ) {
+        if (other == null || getClass() != other.getClass())    return false;
+        BitBoard  o = (BitBoard)other;
+        return mBlacksTurn == o.mBlacksTurn && equalsBoard( o );
+    }
+    //-----------------------------------------------------------------------
+    // return true if the board _contents_ are equal; false otherwise.
+    // do not consider mBlacksTurn for equality; only consider the board contents.
+    public boolean equalsBoard ( BitBoard other ) {
+        if (other == null)    return false;
+        if (mRed != other.mRed || mBlack != other.mBlack)    return false;
+        for (int p = Board.rRat; p <= Board.bElephant; p++) {
+            if (mPieces[ p ] != other.mPieces[ p ])    return false;
+        }
+        return true;
+    }
+    //-----------------------------------------------------------------------
+    @Override
+    public int hashCode ( ) {
+        long  h = mBlacksTurn ? 1 : 2;
+        for (int p = Board.rRat; p <= Board.bElephant; p++)
+            h = h * 31 + mPieces[ p ];
+        return (int)(h ^ (h >>> 32));
+    }
+    //-----------------------------------------------------------------------
+    // same format as Board.toString.
+    public String toString ( ) {
+        return toBoard().toString();
+    }
+}
@@ -51,31 +51,101 @@ public class Board {
     public static final int   fCols = 7;  //# of board cols
 
     public static enum Color { None, Red, Black };  //color of piece (or none)
+
+    public static final int   fMaxMoves = 32;  //8 pieces, at most 4 moves each
+    public static final int   fMaxUndo  = 128;   //initial size of the undo stack (it grows)
+
+    public static final int   fRDenSquare = fCols / 2;                        //(0,3)
+    public static final int   fBDenSquare = (fRows - 1) * fCols + fCols / 2;  //(8,3)
+
+    //zobrist keys: one random 64-bit value per (piece, square) and one for
+    // black to move.  the seed is fixed so keys are the same in every run
+    // (and may be stored in files).
+    private static final long  fZobrist[] = new long[ (bElephant + 1) * fRows * fCols ];
+    private static final long  fZobristBlacksTurn;
+    static {
+        long  x = 0x2016D05E5A0C4E55L;
+        for (int i = 0; i < fZobrist.length; i++)
+            fZobrist[ i ] = x = splitMix( x );
+        fZobristBlacksTurn = splitMix( x );
+    }
     //-----------------------------------------------------------------------
     //the playing board.  mBoard[0][0] is the upper left corner.
     protected byte     mBoard[][]  = new byte[ fRows ][ fCols ];
     protected boolean  mBlacksTurn = true;  //by convention, black goes first
+    //the square (r * fCols + c) of each (moveable) piece, or -1 once it has
+    // been captured.  each piece appears at most once on the board.
+    protected byte     mPieceSquare[] = new byte[ bElephant + 1 ];
+    //the undo stack for makeMove/unmakeMove: the move made (which includes
+    // the captured piece) and whose turn it was before it.
+    protected int      mUndoMove[] = new int[ fMaxUndo ];
+    protected boolean  mUndoTurn[] = new boolean[ fMaxUndo ];
+    protected long     mUndoKey[]  = new long[ fMaxUndo ];
+    protected int      mUndoCount  = 0;
+    //the zobrist key of the pieces on the board (xor of fZobrist for every
+    // piece and its square).  the side to move is xor'ed in by getKey so
+    // that mBlacksTurn may still be assigned directly.
+    protected long     mKey        = 0;
+    //the number of pieces of each color, and whether a piece has entered
+    // the opponent's den (i.e., that side has won).
+    protected int      mRedCount   = 0;
+    protected int      mBlackCount = 0;
+    protected boolean  mRedInDen   = false;
+    protected boolean  mBlackInDen = false;
+    //the sum of Evaluation.value over the pieces on the board (for red)
+    protected int      mEval       = 0;
+    //the accumulators of an Nnue evaluating this board (or null)
+    protected Nnue.Accumulator  mAccumulator = null;
     //-----------------------------------------------------------------------
     // init the board.  by convention, red will initially be in the top half
     // (0,0) of the board, and black will start in the bottom half.
     // be careful.  the opposite sides do not mirror each other!
     public Board ( ) {
         // \todo v1
+        //set the terrain
+        for (int i = 0; i < fRows; i++)
+            System.arraycopy( fTerrain[ i ], 0, mBoard[ i ], 0, fCols );
+        //set red pieces
+        mBoard[0][0] |= rLion;
+        mBoard[0][6] |= rTiger;
+        mBoard[1][1] |= rDog;
+        mBoard[1][5] |= rCat;
+        mBoard[2][0] |= rRat;
+        mBoard[2][2] |= rLeopard;
+        mBoard[2][4] |= rWolf;
+        mBoard[2][6] |= rElephant;
+        //set black pieces
+        mBoard[6][0] |= bElephant;
+        mBoard[6][2] |= bWolf;
+        mBoard[6][4] |= bLeopard;
+        mBoard[6][6] |= bRat;
+        mBoard[7][1] |= bCat;
+        mBoard[7][5] |= bDog;
+        mBoard[8][0] |= bTiger;
+        mBoard[8][6] |= bLion;
+        refresh();
+    }
+    //-----------------------------------------------------------------------
+    //the terrain (e.g., cWater) of every square, without pieces.  this is
+    // the one definition of the layout of the board (see getTerrain).
+    private static final byte  fTerrain[][] = layout();
+    private static byte[][] layout ( ) {
+        byte  t[][] = new byte[ fRows ][ fCols ];
         //set ground
         for (int i = 0; i < 9; i++){
             for (int j = 0; j < 7; j++)
-                mBoard[i][j] = cGround;
+                t[i][j] = cGround;
         }
         int mCol = fCols / 2;
         //set red den
-        mBoard [0][mCol] = cRDen;
+        t [0][mCol] = cRDen;
         //set black den
-        mBoard [8][mCol] = cBDen;
+        t [8][mCol] = cBDen;
         //set water
         for (int i = 3; i < 6; i++) {
             for (int j = 1; j < 6; j++) {
                 if (j != 3) {
-                    mBoard[i][j] = cWater;
+                    t[i][j] = cWater;
                 }
             }
         }
@@ -83,10 +153,10 @@ public class Board {
         for (int i = 0; i < 2; i++){
             for (int j = 2; j < 5; j++){
                 if (i == 0 && j != 3){
-                    mBoard[i][j] = cRTrap;
+                    t[i][j] = cRTrap;
                 }
                 if (i == 1 && j != 2 && j != 4){
-                    mBoard[i][j] = cRTrap;
+                    t[i][j] = cRTrap;
                 }
             }
         }
@@ -94,31 +164,54 @@ public class Board {
         for (int i = 7; i < 9; i++){
             for (int j = 2; j < 5; j++){
                 if (i == 8 && j != 3){
-                    mBoard[i][j] = cBTrap;
+                    t[i][j] = cBTrap;
                 }
                 if (i == 7 && j != 2 && j != 4){
-                    mBoard[i][j] = cBTrap;
+                    t[i][j] = cBTrap;
                 }
             }
         }
-        //set red pieces
-        mBoard[0][0] |= rLion;
-        mBoard[0][6] |= rTiger;
-        mBoard[1][1] |= rDog;
-        mBoard[1][5] |= rCat;
-        mBoard[2][0] |= rRat;
-        mBoard[2][2] |= rLeopard;
-        mBoard[2][4] |= rWolf;
-        mBoard[2][6] |= rElephant;
-        //set black pieces
-        mBoard[6][0] |= bElephant;
-        mBoard[6][2] |= bWolf;
-        mBoard[6][4] |= bLeopard;
-        mBoard[6][6] |= bRat;
-        mBoard[7][1] |= bCat;
-        mBoard[7][5] |= bDog;
-        mBoard[8][0] |= bTiger;
-        mBoard[8][6] |= bLion;
+        return t;
+    }
+    //-----------------------------------------------------------------------
+    // the terrain (e.g., cWater) at the specified position on every board,
+    // or cNone if out of bounds.
+    public static int getTerrain ( int r, int c ) {
+        if (r >= fRows || c >= fCols || r < 0 || c < 0)
+            return cNone;
+        return fTerrain[ r ][ c ];
+    }
+    //-----------------------------------------------------------------------
+    // recompute the state that is derived from mBoard (e.g., mPieceSquare).
+    // call this after changing mBoard directly.
+    protected void refresh ( ) {
+        java.util.Arrays.fill( mPieceSquare, (byte)-1 );
+        mKey = 0;
+        mRedCount = mBlackCount = 0;
+        mRedInDen = mBlackInDen = false;
+        mEval = 0;
+        if (mAccumulator != null)    mAccumulator.clear();
+        for (int s = 0; s < fRows * fCols; s++) {
+            int  p = fPieceMask & at( s );
+            if (p != rbNone)    add( s, p );
+        }
+    }
+    //-----------------------------------------------------------------------
+    private static long splitMix ( long x ) {
+        x += 0x9E3779B97F4A7C15L;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+    //-----------------------------------------------------------------------
+    // the 64-bit zobrist key of this position (pieces and side to move).
+    public long getKey ( ) {
+        return mBlacksTurn ? mKey ^ fZobristBlacksTurn : mKey;
+    }
+    //-----------------------------------------------------------------------
+    // the board value (terrain and piece bits) at square s = r * fCols + c.
+    private byte at ( int s ) {
+        return mBoard[ s / fCols ][ s % fCols ];
     }
     //-----------------------------------------------------------------------
     // return the specific (moveable) piece (e.g., bWolf or rbNone) at the
@@ -213,723 +306,38 @@ public class Board {
     //-----------------------------------------------------------------------
     // returns true if the proposed move is valid (regardless of whose turn it is).
     // false otherwise.
-    // (this is the most challenging part of the assignment.)
+    // the geometry (a single orthogonal step, or a lion/tiger jump straight
+    // across the river that no piece blocks) is checked here.  whether the
+    // piece may then move onto the destination (terrain, dens, traps, and
+    // captures by rank) is a single lookup in CaptureTable.
     protected boolean isValidMove ( int fromRow, int fromCol, int toRow, int toCol ) {
         // \todo v2
-        int fromPiece = getPiece(fromRow, fromCol);
-        int toPiece = getPiece(toRow, toCol);
-        int board = getBoard(toRow, toCol);
-        if (fromRow >= fRows || fromCol >= fCols || toRow >= fRows || toCol >= fCols || fromRow < 0 || fromCol < 0 || toRow < 0 || toCol < 0)
+        if (fromRow >= fRows || fromCol >= fCols || toRow >= fRows || toCol >= fCols
+                || fromRow < 0 || fromCol < 0 || toRow < 0 || toCol < 0)
             return false;
-        //check elephant
-        if (fromPiece == rElephant || fromPiece == bElephant) {
-            //check move
-            if (toRow == fromRow && toCol == fromCol)
-                return false;
-            if ((((toRow == fromRow + 1) || (toRow == fromRow - 1)) && (toCol == fromCol))
-                    || (((toCol == fromCol + 1) || (toCol == fromCol - 1)) && (toRow == fromRow))) {
-                //check red piece
-                if (fromPiece == rElephant) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return true;
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant || toPiece == bRat)
-                            return false;
-                    }
-                    //check bDen
-                    if (board == cBDen)
-                        return true;
-                    if (board == cRDen)
-                        return false;
-                }
-                //check black piece
-                if (fromPiece == bElephant) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return true;
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == rRat)
-                            return false;
-                    }
-                    //check rDen
-                    if (board == cRDen)
-                        return true;
-                    if (board == cBDen)
-                        return false;
-                }
-                return true;
-            }
-        }
-        //check lion
-        if (fromPiece == rLion || fromPiece == bLion){
-            if (toRow == fromRow && toCol == fromCol)
-                return false;
-            if ((((toRow == fromRow + 1) || (toRow == fromRow - 1)) && (toCol == fromCol))
-                    || (((toCol == fromCol + 1) || (toCol == fromCol - 1)) && (toRow == fromRow))) {
-                //check red piece
-                if (fromPiece == rLion) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return true;
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rElephant || toPiece == bElephant)
-                            return false;
-                    }
-                    //check bDen
-                    if (board == cBDen)
-                        return true;
-                    if (board == cRDen)
-                        return false;
-                }
-                //check black piece
-                if (fromPiece == bLion) {
-                    //check board
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return true;
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bElephant || toPiece == rElephant)
-                            return false;
-                    }
-                    //check rDen
-                    if (board == cRDen)
-                        return true;
-                    if (board == cBDen)
-                        return false;
-                }
-                return true;
-            }
-            //jump over water
-            if (getBoard(fromRow + 1, fromCol) == cWater || getBoard(fromRow - 1, fromCol) == cWater
-                    || getBoard(fromRow, fromCol + 1) == cWater || getBoard(fromRow, fromCol - 1) == cWater) {
-                System.out.println("water 1");
-                if (((toRow == fromRow) && (toCol == fromCol + 3)) || ((toRow == fromRow + 4) && (toCol == fromCol))
-                        || ((toRow == fromRow) && (toCol == fromCol - 3)) || ((toRow == fromRow - 4) && (toCol == fromCol))) {
-                    System.out.println("jump1");
-                    //check red piece
-                    if (fromPiece == rLion) {
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rElephant || toPiece == bElephant)
-                            return false;
-                        if (board == cWater)
-                            return false;
-                        if ((fromRow - toRow > 0) && (fromCol == toCol)){
-                            //check rRat
-                            if (getPiece(fromRow - 1, fromCol) == rRat || getPiece(fromRow - 2, fromCol) == rRat
-                                    || getPiece(fromRow - 3, fromCol) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow - 1, fromCol) == bRat || getPiece(fromRow - 2, fromCol) == bRat
-                                    || getPiece(fromRow - 3, fromCol) == bRat)
-                                return false;
-                        }
-                        if ((fromRow - toRow < 0) && (fromCol == toCol)){
-                            //check rRat
-                            if (getPiece(fromRow + 1, fromCol) == rRat || getPiece(fromRow + 2, fromCol) == rRat
-                                    || getPiece(fromRow + 3, fromCol) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow + 1, fromCol) == bRat || getPiece(fromRow + 2, fromCol) == bRat
-                                    || getPiece(fromRow + 3, fromCol) == bRat)
-                                return false;
-                        }
-                        if ((fromRow == toRow) && (fromCol - toCol > 0)){
-                            //check rRat
-                            if (getPiece(fromRow, fromCol - 1) == rRat || getPiece(fromRow, fromCol - 2) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow, fromCol - 1) == bRat || getPiece(fromRow, fromCol - 2) == bRat)
-                                return false;
-                        }
-                        if ((fromRow == toRow) && (fromCol - toCol < 0)){
-                            //check rRat
-                            if (getPiece(fromRow, fromCol + 1) == rRat || getPiece(fromRow, fromCol + 2) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow, fromCol + 1) == bRat || getPiece(fromRow, fromCol + 2) == bRat)
-                                return false;
-                        }
-                    }
-                    //check black piece
-                    if (fromPiece == bLion) {
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bElephant || toPiece == rElephant)
-                            return false;
-                        if (board == cWater)
-                            return false;
-                        //check Rat
-                        if ((fromRow - toRow > 0) && (fromCol == toCol)){
-                            //check rRat
-                            if (getPiece(fromRow - 1, fromCol) == rRat || getPiece(fromRow - 2, fromCol) == rRat
-                                    || getPiece(fromRow - 3, fromCol) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow - 1, fromCol) == bRat || getPiece(fromRow - 2, fromCol) == bRat
-                                    || getPiece(fromRow - 3, fromCol) == bRat)
-                                return false;
-                        }
-                        if ((fromRow - toRow < 0) && (fromCol == toCol)){
-                            //check rRat
-                            if (getPiece(fromRow + 1, fromCol) == rRat || getPiece(fromRow + 2, fromCol) == rRat
-                                    || getPiece(fromRow + 3, fromCol) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow + 1, fromCol) == bRat || getPiece(fromRow + 2, fromCol) == bRat
-                                    || getPiece(fromRow + 3, fromCol) == bRat)
-                                return false;
-                        }
-                        if ((fromRow == toRow) && (fromCol - toCol > 0)){
-                            //check rRat
-                            if (getPiece(fromRow, fromCol - 1) == rRat || getPiece(fromRow, fromCol - 2) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow, fromCol - 1) == bRat || getPiece(fromRow, fromCol - 2) == bRat)
-                                return false;
-                        }
-                        if ((fromRow == toRow) && (fromCol - toCol < 0)){
-                            //check rRat
-                            if (getPiece(fromRow, fromCol + 1) == rRat || getPiece(fromRow, fromCol + 2) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow, fromCol + 1) == bRat || getPiece(fromRow, fromCol + 2) == bRat)
-                                return false;
-                        }
-                    }
-                    return true;
-                }
-            }
-        }
-        //check tiger
-        if (fromPiece == rTiger || fromPiece == bTiger) {
-            if (toRow == fromRow && toCol == fromCol)
-                return false;
-            //check move
-            if ((((toRow == fromRow + 1) || (toRow == fromRow - 1)) && (toCol == fromCol))
-                    || (((toCol == fromCol + 1) || (toCol == fromCol - 1)) && (toRow == fromRow))) {
-                //check red piece
-                if (fromPiece == rTiger) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return true;
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rLion || toPiece == rElephant || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                    }
-                    //check bDen
-                    if (board == cBDen)
-                        return true;
-                    if (board == cRDen)
-                        return false;
-                }
-                //check black piece
-                if (fromPiece == bTiger) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return true;
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bLion || toPiece == bElephant || toPiece == rLion || toPiece == rElephant)
-                            return false;
-                    }
-                        //check rDen
-                    if (board == cRDen)
-                        return true;
-                    if (board == cBDen)
-                        return false;
-                }
-                return true;
-            }
-            //jump over water
-            if (getBoard(fromRow + 1, fromCol) == cWater || getBoard(fromRow - 1, fromCol) == cWater
-                    || getBoard(fromRow, fromCol + 1) == cWater || getBoard(fromRow, fromCol - 1) == cWater) {
-                System.out.println("water 1");
-                if (((toRow == fromRow) && (toCol == fromCol + 3)) || ((toRow == fromRow + 4) && (toCol == fromCol))
-                        || ((toRow == fromRow) && (toCol == fromCol - 3)) || ((toRow == fromRow - 4) && (toCol == fromCol))) {
-                    System.out.println("jump1");
-                    //check red piece
-                    if (fromPiece == rTiger) {
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rLion || toPiece == rElephant || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                        if (board == cWater)
-                            return false;
-                        if ((fromRow - toRow > 0) && (fromCol == toCol)){
-                            //check rRat
-                            if (getPiece(fromRow - 1, fromCol) == rRat || getPiece(fromRow - 2, fromCol) == rRat
-                                    || getPiece(fromRow - 3, fromCol) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow - 1, fromCol) == bRat || getPiece(fromRow - 2, fromCol) == bRat
-                                    || getPiece(fromRow - 3, fromCol) == bRat)
-                                return false;
-                        }
-                        if ((fromRow - toRow < 0) && (fromCol == toCol)){
-                            //check rRat
-                            if (getPiece(fromRow + 1, fromCol) == rRat || getPiece(fromRow + 2, fromCol) == rRat
-                                    || getPiece(fromRow + 3, fromCol) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow + 1, fromCol) == bRat || getPiece(fromRow + 2, fromCol) == bRat
-                                    || getPiece(fromRow + 3, fromCol) == bRat)
-                                return false;
-                        }
-                        if ((fromRow == toRow) && (fromCol - toCol > 0)){
-                            //check rRat
-                            if (getPiece(fromRow, fromCol - 1) == rRat || getPiece(fromRow, fromCol - 2) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow, fromCol - 1) == bRat || getPiece(fromRow, fromCol - 2) == bRat)
-                                return false;
-                        }
-                        if ((fromRow == toRow) && (fromCol - toCol < 0)){
-                            //check rRat
-                            if (getPiece(fromRow, fromCol + 1) == rRat || getPiece(fromRow, fromCol + 2) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow, fromCol + 1) == bRat || getPiece(fromRow, fromCol + 2) == bRat)
-                                return false;
-                        }
-                    }
-                    //check black piece
-                    if (fromPiece == bTiger) {
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bLion || toPiece == bElephant || toPiece == rLion ||toPiece == rElephant)
-                            return false;
-                        if (board == cWater)
-                            return false;
-                        //check Rat
-                        if ((fromRow - toRow > 0) && (fromCol == toCol)){
-                            //check rRat
-                            if (getPiece(fromRow - 1, fromCol) == rRat || getPiece(fromRow - 2, fromCol) == rRat
-                                    || getPiece(fromRow - 3, fromCol) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow - 1, fromCol) == bRat || getPiece(fromRow - 2, fromCol) == bRat
-                                    || getPiece(fromRow - 3, fromCol) == bRat)
-                                return false;
-                        }
-                        if ((fromRow - toRow < 0) && (fromCol == toCol)){
-                            //check rRat
-                            if (getPiece(fromRow + 1, fromCol) == rRat || getPiece(fromRow + 2, fromCol) == rRat
-                                    || getPiece(fromRow + 3, fromCol) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow + 1, fromCol) == bRat || getPiece(fromRow + 2, fromCol) == bRat
-                                    || getPiece(fromRow + 3, fromCol) == bRat)
-                                return false;
-                        }
-                        if ((fromRow == toRow) && (fromCol - toCol > 0)){
-                            //check rRat
-                            if (getPiece(fromRow, fromCol - 1) == rRat || getPiece(fromRow, fromCol - 2) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow, fromCol - 1) == bRat || getPiece(fromRow, fromCol - 2) == bRat)
-                                return false;
-                        }
-                        if ((fromRow == toRow) && (fromCol - toCol < 0)){
-                            //check rRat
-                            if (getPiece(fromRow, fromCol + 1) == rRat || getPiece(fromRow, fromCol + 2) == rRat)
-                                return false;
-                            //check bRat
-                            if (getPiece(fromRow, fromCol + 1) == bRat || getPiece(fromRow, fromCol + 2) == bRat)
-                                return false;
-                        }
-                    }
-                    return true;
-                }
-            }
-        }
-        //check leopard
-        if (fromPiece == rLeopard || fromPiece == bLeopard) {
-            if (toRow == fromRow && toCol == fromCol)
-                return false;
-            //check move
-            if ((((toRow == fromRow + 1) || (toRow == fromRow - 1)) && (toCol == fromCol))
-                    || (((toCol == fromCol + 1) || (toCol == fromCol - 1)) && (toRow == fromRow))) {
-                //check red piece
-                if (fromPiece == rLeopard) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return true;
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant || toPiece == bTiger || toPiece == bLion
-                                || toPiece == bElephant)
-                            return false;
-                    }
-                    //check bDen
-                    if (board == cBDen)
-                        return true;
-                    if (board == cRDen)
-                        return false;
-                }
-                //check black piece
-                if (fromPiece == bLeopard) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return true;
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant || toPiece == rTiger || toPiece == rLion
-                                || toPiece == rElephant)
-                            return false;
-                    }
-                    //check rDen
-                    if (board == cRDen)
-                        return true;
-                    if (board == cBDen)
-                        return false;
-                }
-                return true;
-            }
-        }
-        //check wolf
-        if (fromPiece == rWolf || fromPiece == bWolf) {
-            if (toRow == fromRow && toCol == fromCol)
-                return false;
-            //check move
-            if ((((toRow == fromRow + 1) || (toRow == fromRow - 1)) && (toCol == fromCol))
-                    || (((toCol == fromCol + 1) || (toCol == fromCol - 1)) && (toRow == fromRow))) {
-                //check red piece
-                if (fromPiece == rWolf) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return true;
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rLeopard || toPiece == rTiger
-                                || toPiece == rLion || toPiece == rElephant || toPiece == bLeopard || toPiece == bTiger || toPiece == bLion
-                                || toPiece == bElephant)
-                            return false;
-                    }
-                    //check bDen
-                    if (board == cBDen)
-                        return true;
-                    if (board == cRDen)
-                        return false;
-                }
-                //check black piece
-                if (fromPiece == bWolf) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return true;
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bLeopard || toPiece == bTiger
-                                || toPiece == bLion || toPiece == bElephant || toPiece == rLeopard || toPiece == rTiger || toPiece == rLion
-                                || toPiece == rElephant)
-                            return false;
-                    }
-                    //check rDen
-                    if (board == cRDen)
-                        return true;
-                    if (board == cBDen)
-                        return false;
-
-                }
-                return true;
-            }
-        }
-        //check dog
-        if (fromPiece == rDog || fromPiece == bDog) {
-            if (toRow == fromRow && toCol == fromCol)
-                return false;
-            //check move
-            if ((((toRow == fromRow + 1) || (toRow == fromRow - 1)) && (toCol == fromCol))
-                    || (((toCol == fromCol + 1) || (toCol == fromCol - 1)) && (toRow == fromRow))) {
-                //check red piece
-                if (fromPiece == rDog) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return true;
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rWolf || toPiece == rLeopard || toPiece == rTiger
-                                || toPiece == rLion || toPiece == rElephant || toPiece == bWolf || toPiece == bLeopard || toPiece == bTiger
-                                || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                    }
-                    //check bDen
-                    if (board == cBDen)
-                        return true;
-                    if (board == cRDen)
-                        return false;
-                }
-                //check black piece
-                if (fromPiece == bDog) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return true;
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bWolf || toPiece == bLeopard || toPiece == bTiger
-                                || toPiece == bLion || toPiece == bElephant || toPiece == rWolf || toPiece == rLeopard || toPiece == rTiger
-                                || toPiece == rLion || toPiece == rElephant)
-                            return false;
-                    }
-                    //check rDen
-                    if (board == cRDen)
-                        return true;
-                    if (board == cBDen)
-                        return false;
-                }
-                return true;
-            }
-        }
-        //check cat
-        if (fromPiece == rCat || fromPiece == bCat) {
-            if (toRow == fromRow && toCol == fromCol)
-                return false;
-            //check move
-            if ((((toRow == fromRow + 1) || (toRow == fromRow - 1)) && (toCol == fromCol))
-                    || (((toCol == fromCol + 1) || (toCol == fromCol - 1)) && (toRow == fromRow))) {
-                //check red piece
-                if (fromPiece == rCat) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return true;
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == rRat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard || toPiece == rTiger
-                                || toPiece == rLion || toPiece == rElephant || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                    }
-                    //check bDen
-                    if (board == cBDen)
-                        return true;
-                    if (board == cRDen)
-                        return false;
-                }
-                //check black piece
-                if (fromPiece == bCat) {
-                    //check water
-                    if (board == cWater)
-                        return false;
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return true;
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == bRat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard || toPiece == bTiger
-                                || toPiece == bLion || toPiece == bElephant || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return false;
-                    }
-                    //check rDen
-                    if (board == cRDen)
-                        return true;
-                    if (board == cBDen)
-                        return false;
-                }
-                return true;
-            }
-        }
-        //check rat
-        if (fromPiece == rRat || fromPiece == bRat) {
-            if (toRow == fromRow && toCol == fromCol)
-                return false;
-            //check move
-            if ((((toRow == fromRow + 1) || (toRow == fromRow - 1)) && (toCol == fromCol))
-                    || (((toCol == fromCol + 1) || (toCol == fromCol - 1)) && (toRow == fromRow))) {
-                //check red piece
-                if (fromPiece == rRat) {
-                    //check attack from water
-                    if (getBoard(fromRow, fromCol) == cWater) {
-                        if (toPiece == bElephant)
-                            return false;
-                    }
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return true;
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard || toPiece == rTiger
-                                || toPiece == rLion || toPiece == rElephant || toPiece == bCat || toPiece == bDog || toPiece == bWolf
-                                || toPiece == bLeopard || toPiece == bTiger || toPiece == bLion)
-                            return false;
-                    }
-                    //check bDen
-                    if (board == cBDen)
-                        return true;
-                    if (board == cRDen)
-                        return false;
-                }
-                //check black piece
-                if (fromPiece == bRat) {
-                    //check attack from water
-                    if (getBoard(fromRow, fromCol) == cWater) {
-                        if (toPiece == rElephant)
-                            return false;
-                    }
-                    //check trap
-                    if (board == cRTrap || board == cBTrap) {
-                        if (toPiece == rRat || toPiece == rCat || toPiece == rDog || toPiece == rWolf || toPiece == rLeopard
-                                || toPiece == rTiger || toPiece == rLion || toPiece == rElephant)
-                            return true;
-                        if (toPiece == bRat || toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard
-                                || toPiece == bTiger || toPiece == bLion || toPiece == bElephant)
-                            return false;
-                        return true;
-                    }
-                    if (board != cRTrap || board != cBTrap){
-                        if (toPiece == bCat || toPiece == bDog || toPiece == bWolf || toPiece == bLeopard || toPiece == bTiger
-                                || toPiece == bLion || toPiece == bElephant || toPiece == rCat || toPiece == rDog || toPiece == rWolf
-                                || toPiece == rLeopard || toPiece == rTiger || toPiece == rLion)
-                            return false;
-                    }
-                    //check rDen
-                    if (board == cRDen)
-                        return true;
-                    if (board == cBDen)
-                        return false;
-                }
-                return true;
-            }
+        int  from = mBoard[ fromRow ][ fromCol ];
+        int  to   = mBoard[ toRow ][ toCol ];
+        int  fromPiece = fPieceMask & from;
+        int  dr = toRow - fromRow, dc = toCol - fromCol;
+        if (dr * dr + dc * dc != 1 && !isJump( fromPiece, fromRow, fromCol, toRow, toCol ))
+            return false;
+        return CaptureTable.canMove( fromPiece, fPieceMask & to, fBoardMask & from, fBoardMask & to );
+    }
+    //-----------------------------------------------------------------------
+    // returns true if this is a lion or tiger jump straight across the water.
+    // every square jumped over must be (empty) water; a rat in the water
+    // blocks the jump.
+    private boolean isJump ( int piece, int fromRow, int fromCol, int toRow, int toCol ) {
+        int  rank = getRank( piece );
+        if (rank != rLion && rank != rTiger)        return false;
+        if (fromRow != toRow && fromCol != toCol)   return false;
+        int  dr = Integer.signum( toRow - fromRow ), dc = Integer.signum( toCol - fromCol );
+        int  r = fromRow + dr, c = fromCol + dc;
+        if (r == toRow && c == toCol)    return false;
+        for ( ; r != toRow || c != toCol; r += dr, c += dc) {
+            if (mBoard[ r ][ c ] != cWater)    return false;  //land or a rat
         }
-        return false;
+        return true;
     }
     //-----------------------------------------------------------------------
     // perform the specified move but only if it's valid.
@@ -939,67 +347,203 @@ public class Board {
         // \todo v2
         if (isValidMove(fromRow,fromCol,toRow,toCol) == true){
             int piece = getPiece(fromRow,fromCol);
-            mBoard[fromRow][fromCol] &= fBoardMask;
-            mBoard[toRow][toCol] &= fBoardMask;
-            mBoard[toRow][toCol] |=(byte) piece;
+            int captured = getPiece(toRow,toCol);
+            int from = fromRow * fCols + fromCol, to = toRow * fCols + toCol;
+            if (captured != rbNone)
+                lift(to, captured);
+            lift(from, piece);
+            place(to, piece);
             return true;
         }
         else
             return false;
     }
+    //-----------------------------------------------------------------------
+    // returns true if the packed move (see Move) is a legal move for the
+    // side to move in this position, e.g., to check a move that was read
+    // from a file or found by a hash key (which may have collided).
+    public boolean isLegal ( int move ) {
+        if (move == Move.fNone)    return false;
+        int  from = Move.from( move ), to = Move.to( move ), piece = Move.piece( move );
+        if (from >= fRows * fCols || to >= fRows * fCols)    return false;
+        if (piece == rbNone || (piece > rElephant) != mBlacksTurn)    return false;
+        return (fPieceMask & at( from )) == piece
+            && (fPieceMask & at( to )) == Move.captured( move )
+            && isValidMove( from / fCols, from % fCols, to / fCols, to % fCols );
+    }
+    //-----------------------------------------------------------------------
+    // make a move produced by generateMoves (it is not checked again) and
+    // give the turn to the other side.  the move is pushed onto the undo
+    // stack so that unmakeMove can take it back without copying the board.
+    public void makeMove ( int move ) {
+        if (mUndoCount == mUndoMove.length) {  //only for very long games
+            mUndoMove = java.util.Arrays.copyOf( mUndoMove, 2 * mUndoCount );
+            mUndoTurn = java.util.Arrays.copyOf( mUndoTurn, 2 * mUndoCount );
+            mUndoKey  = java.util.Arrays.copyOf( mUndoKey,  2 * mUndoCount );
+        }
+        mUndoMove[ mUndoCount ] = move;
+        mUndoTurn[ mUndoCount ] = mBlacksTurn;
+        mUndoKey[ mUndoCount ]  = mKey;
+        mUndoCount++;
+
+        int  piece = Move.piece( move ), captured = Move.captured( move );
+        int  from = Move.from( move ), to = Move.to( move );
+        if (captured != rbNone)    lift( to, captured );
+        lift( from, piece );
+        place( to, piece );
+        mBlacksTurn = piece <= rElephant;  //red moved, so it's black's turn
+    }
+    //-----------------------------------------------------------------------
+    // take back the last move made by makeMove.
+    public void unmakeMove ( ) {
+        int  move = mUndoMove[ --mUndoCount ];
+        int  piece = Move.piece( move ), captured = Move.captured( move );
+        int  from = Move.from( move ), to = Move.to( move );
+        lift( to, piece );
+        place( from, piece );
+        if (captured != rbNone)    place( to, captured );
+        mBlacksTurn = mUndoTurn[ mUndoCount ];
+        mKey        = mUndoKey[ mUndoCount ];
+    }
+    //-----------------------------------------------------------------------
+    // the number of moves made by makeMove that can still be taken back.
+    public int getUndoCount ( ) {
+        return mUndoCount;
+    }
+    //-----------------------------------------------------------------------
+    // take every piece off the board (e.g., to set up a position with
+    // setPiece).  this also empties the undo stack.
+    public void clearPieces ( ) {
+        for (int p = rRat; p <= bElephant; p++) {
+            if (mPieceSquare[ p ] >= 0)    lift( mPieceSquare[ p ], p );
+        }
+        mUndoCount = 0;
+    }
+    //-----------------------------------------------------------------------
+    // put piece p (e.g., bWolf) on the empty square (r,c).  returns false
+    // (and changes nothing) if the square is off the board or occupied, or
+    // if p is already on the board.
+    public boolean setPiece ( int r, int c, int p ) {
+        if (r >= fRows || c >= fCols || r < 0 || c < 0 || p <= rbNone || p > bElephant)
+            return false;
+        if (mPieceSquare[ p ] >= 0 || (fPieceMask & mBoard[ r ][ c ]) != rbNone)
+            return false;
+        place( r * fCols + c, p );
+        return true;
+    }
+    //-----------------------------------------------------------------------
+    // put piece p on (empty) square s, or take it off again.  all changes
+    // to the pieces on the board go through these two methods.
+    private void place ( int s, int p ) {
+        mBoard[ s / fCols ][ s % fCols ] |= (byte)p;
+        add( s, p );
+    }
+    private void lift ( int s, int p ) {
+        mBoard[ s / fCols ][ s % fCols ] &= fBoardMask;
+        remove( s, p );
+    }
+    //-----------------------------------------------------------------------
+    // update the state derived from the pieces (mPieceSquare, the zobrist
+    // key, the piece counts, den occupancy, and the evaluation) for piece p
+    // arriving on (or leaving) square s.
+    private void add ( int s, int p ) {
+        mPieceSquare[ p ] = (byte)s;
+        mKey ^= fZobrist[ p * fRows * fCols + s ];
+        mEval += Evaluation.value( p, s );
+        if (mAccumulator != null)    mAccumulator.add( p, s );
+        if (p <= rElephant) {
+            mRedCount++;
+            if (s == fBDenSquare)    mRedInDen = true;
+        } else {
+            mBlackCount++;
+            if (s == fRDenSquare)    mBlackInDen = true;
+        }
+    }
+    private void remove ( int s, int p ) {
+        mPieceSquare[ p ] = -1;
+        mKey ^= fZobrist[ p * fRows * fCols + s ];
+        mEval -= Evaluation.value( p, s );
+        if (mAccumulator != null)    mAccumulator.remove( p, s );
+        if (p <= rElephant) {
+            mRedCount--;
+            if (s == fBDenSquare)    mRedInDen = false;
+        } else {
+            mBlackCount--;
+            if (s == fRDenSquare)    mBlackInDen = false;
+        }
+    }
+    //-----------------------------------------------------------------------
+    // write every legal move for side into out (which must have room for
+    // fMaxMoves moves) and return the number of moves.  moves are packed
+    // as described in Move.  nothing is allocated.
+    // (this does not check whether the game is already over.)
+    public int generateMoves ( Color side, int out[] ) {
+        int   n = 0;
+        int   first = (side == Color.Red) ? rRat : bRat;
+        //the rats are the only pieces that can be in (and block) the river.
+        // (a captured rat's -1 becomes bit 63, which is in no path.)
+        long  rats = (1L << mPieceSquare[ rRat ]) | (1L << mPieceSquare[ bRat ]);
+        for (int p = first; p < first + 8; p++) {
+            int  from = mPieceSquare[ p ];
+            if (from < 0)    continue;
+            int      fromBoard = fBoardMask & at( from );
+            boolean  jumper = p == first + rLion - 1 || p == first + rTiger - 1;
+            for (int d = 0; d < 4; d++) {
+                int  i  = from * 4 + d;
+                int  to = BitBoard.fStep[ i ];
+                if (to < 0)    continue;
+                byte  v = at( to );
+                if ((fBoardMask & v) == cWater && jumper) {
+                    to = BitBoard.fJump[ i ];
+                    if (to < 0 || (rats & BitBoard.fJumpPath[ i ]) != 0)    continue;
+                    v = at( to );
+                }
+                int  captured = fPieceMask & v;
+                if (CaptureTable.canMove( p, captured, fromBoard, fBoardMask & v ))
+                    out[ n++ ] = Move.encode( from, to, p, captured );
+            }
+        }
+        return n;
+    }
     //=======================================================================
     // version 3
     //=======================================================================
     // returns the number of black pieces remaining on the board.
-    // (accomplish this by scanning the entire board while counting the black pieces.)
+    // (the count is kept up to date by every move, so this is a field read.)
     public int countBlack ( ) {
         // \todo v3
-        int count = 0;
-        for (int i = 0; i < 9; i++){
-            for (int j = 0; j < 7; j++){
-                if (getColor(i, j) == Color.Black)
-                    count++;
-            }
-        }
-        return -1;
+        return mBlackCount;
     }
     //-----------------------------------------------------------------------
     // returns the number of red pieces remaining on the board.
-    // (accomplish this by scanning the entire board while counting the red pieces.)
     public int countRed ( ) {
         // \todo v3
-        int count = 0;
-        for (int i = 0; i < 9; i++){
-            for (int j = 0; j < 7; j++){
-                if (getColor(i, j) == Color.Black)
-                    count++;
-            }
-        }
-        return -1;
+        return mRedCount;
+    }
+    //-----------------------------------------------------------------------
+    // returns the number of pieces p (e.g., bLion) on the board (0 or 1).
+    public int countPieces ( int p ) {
+        return mPieceSquare[ p ] >= 0 ? 1 : 0;
     }
     //-----------------------------------------------------------------------
     // returns true if red is a winner (regardless of whose turn it is).
     // false otherwise.
-    // (accomplish this by checking if a red piece is in the black den.)
+    // (a red piece is in the black den, or black has no pieces left.)
     public boolean isRedWinner ( ) {
         // \todo v3
-        if (countBlack() == -1)
-            return true;
-        if (getColor(8, 3) == Color.Red)
-            return true;
-        return false;
+        return mRedInDen || mBlackCount == 0;
     }
     //-----------------------------------------------------------------------
     // returns true if black is a winner (regardless of whose turn it is).
     // false otherwise.
-    // (accomplish this by checking if a black piece is in the red den.)
+    // (a black piece is in the red den, or red has no pieces left.)
     public boolean isBlackWinner ( ) {
         // \todo v3
-        if (countRed() == -1)
-            return true;
-        if (getColor(0, 3) == Color.Red)
-            return true;
-        return false;
+        return mBlackInDen || mRedCount == 0;
+    }
+    //-----------------------------------------------------------------------
+    public boolean isGameOver ( ) {
+        return isRedWinner() || isBlackWinner();
     }
     //-----------------------------------------------------------------------
     // copy ctor. make a separate, independent copy.
@@ -1010,7 +554,25 @@ public class Board {
                 mBoard[i][j] = other.mBoard[i][j];
             }
         }
-
+        System.arraycopy(other.mPieceSquare, 0, mPieceSquare, 0, mPieceSquare.length);
+        mBlacksTurn = other.mBlacksTurn;
+        mKey = other.mKey;
+        mRedCount = other.mRedCount;
+        mBlackCount = other.mBlackCount;
+        mRedInDen = other.mRedInDen;
+        mBlackInDen = other.mBlackInDen;
+        mEval = other.mEval;
+        if (other.mAccumulator != null)    mAccumulator = new Nnue.Accumulator( other.mAccumulator );
+    }
+    //-----------------------------------------------------------------------
+    // evaluate this board with a network (see Evaluation.evaluate), or
+    // with the piece-square tables again (null).
+    public void setNetwork ( Nnue net ) {
+        mAccumulator = (net != null) ? net.newAccumulator() : null;
+        refresh();
+    }
+    public Nnue getNetwork ( ) {
+        return mAccumulator != null ? mAccumulator.mNet : null;
     }
     //-----------------------------------------------------------------------
     // this is a "proper" equals method.
@@ -1024,14 +586,10 @@ public class Board {
             return false;
         else {
             Board newBoard = (Board)other;
-            return (rbNone == newBoard.rbNone && rRat == newBoard.rRat && rCat == newBoard.rCat && rDog == newBoard.rDog
-            && rWolf == newBoard.rWolf && rLeopard == newBoard.rLeopard && rTiger == newBoard.rTiger && rLion == newBoard.rLion
-            && rElephant == newBoard.rElephant && bRat == newBoard.bRat && bCat == newBoard.bCat && bDog == newBoard.bDog
-            && bWolf == newBoard.bWolf && bLeopard == newBoard.bLeopard && bTiger == newBoard.bTiger && bLion == newBoard.bLion
-            && bElephant == newBoard.bElephant && fPieceMask == newBoard.fPieceMask && cNone == newBoard.cNone && cWater == newBoard.cWater
-            && cGround == newBoard.cGround && cRTrap == newBoard.cRTrap && cBTrap == newBoard.cBTrap && cRDen == newBoard.cRDen
-            && cBDen == newBoard.cBDen && fBoardMask == newBoard.fBoardMask && fRows == newBoard.fRows && fCols == newBoard.fCols
-            && mBoard == newBoard.mBoard && mBlacksTurn == newBoard.mBlacksTurn);
+            //different keys always mean different positions
+            if (getKey() != newBoard.getKey())
+                return false;
+            return mBlacksTurn == newBoard.mBlacksTurn && equalsBoard(newBoard);
         }
     }
     //-----------------------------------------------------------------------
@@ -1042,6 +600,8 @@ public class Board {
         // \todo v3
         if (other == null)
             return false;
+        else if (mKey != other.mKey)
+            return false;
         else{
             for (int i = 0; i < 9; i++){
                 for (int j = 0; j < 7; j++){
@@ -1056,31 +616,12 @@ public class Board {
     //from "Effective Java" by J. Bloch:
     // "Item 9: Always override hashCode when you override equals"
     //
-    //use the string algorithm from
-    // https://en.wikipedia.org/wiki/Java_hashCode%28%29#The_java.lang.String_hash_function.
-    // simply treat the individual board values (i.e., mBoard[r][c]) as the
-    // individual character values.  (DO NOT use charAt on the string returned
-    // from toString for this function.)  also include the value of mBlacksTurn
-    // as described below as the last (i.e., nth) character.
+    //fold the 64-bit zobrist key (which already covers every piece and
+    // mBlacksTurn and is kept up to date by every move) into 32 bits.
     @Override
     public int hashCode ( ) {
-        //include individual board values
-        int hash = 0, i = 0;
-        for (int r = 0; r < Board.fRows; r++) {
-            for (int c = 0; c < Board.fCols; c++) {
-                int power = 1;
-                if (i > 0) {
-                    for (int p = 1; p <= fRows * fCols - 1 - i; p++)
-                        power *= 31;
-                }
-                hash += power * mBoard[r][c];
-                i++;
-            }
-        }
-        //include mBlacksTurn as the last character value by using a value of 1 if it
-        // is true, and a value of 2 if it is false.
-        return hash + ((mBlacksTurn) ? 1 : 2);
-
+        long  key = getKey();
+        return (int)(key ^ (key >>> 32));
     }
     //-----------------------------------------------------------------------
     // returns a string representing the board that can be pretty-printed.
@@ -11,128 +11,126 @@ import java.awt.event.MouseEvent;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.event.MouseInputListener;
 
-class BoardSketcher extends JPanel implements MouseInputListener {
+class BoardSketcher extends JPanel implements MouseInputListener, EnginePlayer.Listener {
 
     private static final long serialVersionUID = -375357054354551873L;
 
     public static final int  size = 80;
     private Board   b = null;
+    private EnginePlayer  engine = null;  //plays one side (or null for two humans)
     private int     fromR = -1, fromC = -1, toR = -1, toC = -1;
     public boolean  soundOn = true;
     private Font    f = new Font( "Courier New", Font.BOLD, 18 );
     private enum Sound { firstClick, secondClick, badMove, capture, winner };
 
-    private Image  piece[] = new Image[ 17 ];
+    private SpriteAtlas  sprites;  //the images of the pieces
+    private Image  terrain = null;  //see terrain()
+    private static final String  fNames[] = { "", "Rat", "Cat", "Dog", "Wol", "Leo", "Tig", "Lio", "Ele" };  //by rank
     //-----------------------------------------------------------------------
     BoardSketcher ( Board b ) {
         this.b = b;
-        //load the images for the (moveable) board pieces
-        piece[ Board.rbNone    ] = null;
-
-        piece[ Board.rRat      ] = Toolkit.getDefaultToolkit().getImage( "graphics/rRat.png"      );
-        piece[ Board.rCat      ] = Toolkit.getDefaultToolkit().getImage( "graphics/rCat.png"      );
-        piece[ Board.rDog      ] = Toolkit.getDefaultToolkit().getImage( "graphics/rDog.png"      );
-        piece[ Board.rWolf     ] = Toolkit.getDefaultToolkit().getImage( "graphics/rWolf.png"     );
-        piece[ Board.rLeopard  ] = Toolkit.getDefaultToolkit().getImage( "graphics/rLeopard.png"  );
-        piece[ Board.rTiger    ] = Toolkit.getDefaultToolkit().getImage( "graphics/rTiger.png"    );
-        piece[ Board.rLion     ] = Toolkit.getDefaultToolkit().getImage( "graphics/rLion.png"     );
-        piece[ Board.rElephant ] = Toolkit.getDefaultToolkit().getImage( "graphics/rElephant.png" );
-
-        piece[ Board.bRat      ] = Toolkit.getDefaultToolkit().getImage( "graphics/bRat.png"      );
-        piece[ Board.bCat      ] = Toolkit.getDefaultToolkit().getImage( "graphics/bCat.png"      );
-        piece[ Board.bDog      ] = Toolkit.getDefaultToolkit().getImage( "graphics/bDog.png"      );
-        piece[ Board.bWolf     ] = Toolkit.getDefaultToolkit().getImage( "graphics/bWolf.png"     );
-        piece[ Board.bLeopard  ] = Toolkit.getDefaultToolkit().getImage( "graphics/bLeopard.png"  );
-        piece[ Board.bTiger    ] = Toolkit.getDefaultToolkit().getImage( "graphics/bTiger.png"    );
-        piece[ Board.bLion     ] = Toolkit.getDefaultToolkit().getImage( "graphics/bLion.png"     );
-        piece[ Board.bElephant ] = Toolkit.getDefaultToolkit().getImage( "graphics/bElephant.png" );
+        //load the images for the (moveable) board pieces, all of them now
+        sprites = new SpriteAtlas( "graphics", size );
 
         addMouseListener( this );
     }
     //-----------------------------------------------------------------------
+    // let the computer play one side (the engine's listener must be this).
+    void setEngine ( EnginePlayer e ) {
+        engine = e;
+        if (isEngineTurn())    engine.play( b );
+    }
+    //-----------------------------------------------------------------------
+    private boolean isEngineTurn ( ) {
+        if (engine == null || b.isGameOver())    return false;
+        return b.mBlacksTurn == (engine.getSide() == Board.Color.Black);
+    }
+    //-----------------------------------------------------------------------
+    // (called on the engine's thread) make the engine's move on the event
+    // dispatch thread, which is the only one that touches the board.
+    public void moved ( final int m ) {
+        SwingUtilities.invokeLater( new Runnable() {
+            public void run ( ) {
+                b.makeMove( m );
+                if (Move.isCapture( m ))    play( Sound.capture );
+                else                        play( Sound.secondClick );
+                repaintMove( m );
+            }
+        } );
+    }
+    //-----------------------------------------------------------------------
+    // the terrain (water, traps, dens) and grid, which never change, are
+    // drawn once into an image; paint copies the part of it that needs
+    // repainting and draws the pieces of only those squares.  a move or
+    // selection repaints just the squares it changes (see repaintSquare).
     public void paint ( Graphics g ) {
-        System.out.println( "paint" );
         if (b == null)    return;
 
-        System.out.println( b );
+        Rectangle  clip = g.getClipBounds();
+        if (clip == null)    clip = new Rectangle( 0, 0, getWidth(), getHeight() );
+        if (clip.x + clip.width > size*Board.fCols || clip.y + clip.height > size*Board.fRows) {
+            g.setColor( Color.darkGray );  //beyond the board
+            g.fillRect( clip.x, clip.y, clip.width, clip.height );
+        }
+        g.drawImage( terrain(), 0, 0, this );
 
         g.setFont( f );
-        g.setColor( Color.darkGray );
-        g.fillRect( 0, 0, getWidth(), getHeight() );
-
-        for (int r=0; r<Board.fRows; r++) {
-            for (int c=0; c<Board.fCols; c++) {
-                int  v = b.getBoard( r, c );
-                switch (v) {
-                    case Board.cBDen :
-                        g.setColor( Color.black );
-                        g.fillRect( size*c, size*r, size, size );
-                        break;
-                    case Board.cBTrap :
-                        g.setColor( Color.gray );
-                        g.fillRect( size*c, size*r, size, size );
-                        break;
-                    case Board.cGround :
-                        g.setColor( new Color(10,120,50) );
-                        g.fillRect( size*c, size*r, size, size );
-                        break;
-                    case Board.cRDen :
-                        g.setColor( Color.red );
-                        g.fillRect( size*c, size*r, size, size );
-                        break;
-                    case Board.cRTrap :
-                        g.setColor( Color.pink );
-                        g.fillRect( size*c, size*r, size, size );
-                        break;
-                    case Board.cWater :
-                        g.setColor( new Color(10,120,150) );
-                        g.fillRect( size*c, size*r, size, size );
-                        break;
+        int  r0 = Math.max( 0, clip.y / size ), r1 = Math.min( Board.fRows - 1, (clip.y + clip.height - 1) / size );
+        int  c0 = Math.max( 0, clip.x / size ), c1 = Math.min( Board.fCols - 1, (clip.x + clip.width - 1) / size );
+        for (int r=r0; r<=r1; r++) {
+            for (int c=c0; c<=c1; c++) {
+                int  v = b.getPiece( r, c );
+                if (v != Board.rbNone) {
+                    sprites.draw( g, v, c*size, r*size, getGraphicsConfiguration() );
+
+                    String  p = (v > Board.rElephant ? "b" : "r") + fNames[ b.getRank( v ) ];
+                    if (p.charAt( 0 ) == 'r')    g.setColor( Color.red );
+                    else                         g.setColor( Color.darkGray );
+                    int  rank = b.getRank( r, c );
+                    g.drawString( p,       c*size+6,      r*size+15 );
+                    g.drawString( ""+rank, (c+1)*size-12, (r+1)*size-5 );
                 }
+                //the grid lines around the square (a piece covers two of them)
+                g.setColor( Color.darkGray );
+                g.drawRect( size*c, size*r, size, size );
             }
         }
 
-        Graphics2D  g2 = (Graphics2D)g;
-        g.setColor( Color.lightGray );
+        if (fromR != -1) {
+            g.setColor( Color.yellow );
+            g.draw3DRect( size*fromC, size*fromR, size, size, true );
+        }
+    }
+    //-----------------------------------------------------------------------
+    // the terrain and grid, drawn into an image (compatible with the
+    // screen, so copying it is fast) the first time.
+    private Image terrain ( ) {
+        if (terrain != null)    return terrain;
+        int  w = size*Board.fCols + 1, h = size*Board.fRows + 1;
+        GraphicsConfiguration  gc = getGraphicsConfiguration();
+        terrain = (gc != null) ? gc.createCompatibleImage( w, h )
+                               : new java.awt.image.BufferedImage( w, h, java.awt.image.BufferedImage.TYPE_INT_RGB );
+        Graphics  g = terrain.getGraphics();
+        g.setColor( Color.darkGray );
+        g.fillRect( 0, 0, w, h );
         for (int r=0; r<Board.fRows; r++) {
             for (int c=0; c<Board.fCols; c++) {
-                int     v = b.getPiece( r, c );
-                String  p = null;
+                int  v = b.getBoard( r, c );
                 switch (v) {
-                    case Board.bCat      :  p = "bCat";  break;
-                    case Board.bDog      :  p = "bDog";  break;
-                    case Board.bElephant :  p = "bEle";  break;
-                    case Board.bLeopard  :  p = "bLeo";  break;
-                    case Board.bLion     :  p = "bLio";  break;
-                    case Board.bRat      :  p = "bRat";  break;
-                    case Board.bTiger    :  p = "bTig";  break;
-                    case Board.bWolf     :  p = "bWol";  break;
-
-                    case Board.rCat      :  p = "rCat";  break;
-                    case Board.rDog      :  p = "rDog";  break;
-                    case Board.rElephant :  p = "rEle";  break;
-                    case Board.rLeopard  :  p = "rLeo";  break;
-                    case Board.rLion     :  p = "rLio";  break;
-                    case Board.rRat      :  p = "rRat";  break;
-                    case Board.rTiger    :  p = "rTig";  break;
-                    case Board.rWolf     :  p = "rWol";  break;
-                    default              :  p = null;    break;
-                }
-                if (p != null) {
-                    g2.drawImage( this.piece[v], c*size, r*size, size, size, this );
-
-                    if (p.charAt( 0 ) == 'r')    g.setColor( Color.red );
-                    else                         g.setColor( Color.darkGray );
-                    int  rank = b.getRank( r, c );
-                    g.drawString( p,       c*size+6,      r*size+15 );
-                    g.drawString( ""+rank, (c+1)*size-12, (r+1)*size-5 );
-
+                    case Board.cBDen :    g.setColor( Color.black );               break;
+                    case Board.cBTrap :   g.setColor( Color.gray );                break;
+                    case Board.cGround :  g.setColor( new Color(10,120,50) );      break;
+                    case Board.cRDen :    g.setColor( Color.red );                 break;
+                    case Board.cRTrap :   g.setColor( Color.pink );                break;
+                    case Board.cWater :   g.setColor( new Color(10,120,150) );     break;
+                    default :             continue;
                 }
+                g.fillRect( size*c, size*r, size, size );
             }
         }
-
         //draw grid
         g.setColor( Color.darkGray );
         for (int r=0; r<=Board.fRows; r++) {
@@ -141,12 +139,18 @@ class BoardSketcher extends JPanel implements MouseInputListener {
         for (int c=0; c<=Board.fCols; c++) {
             g.drawLine(  size*c,  0,  size*c, size*Board.fRows );
         }
-
-        if (fromR != -1) {
-            g.setColor( Color.yellow );
-            //g.drawRect( size*fromC, size*fromR, size, size );
-            g.draw3DRect( size*fromC, size*fromR, size, size, true );
-        }
+        g.dispose();
+        return terrain;
+    }
+    //-----------------------------------------------------------------------
+    // repaint only square (r,c) (with its grid lines), if it is on the board.
+    private void repaintSquare ( int r, int c ) {
+        if (r >= 0 && c >= 0)    repaint( size*c, size*r, size+1, size+1 );
+    }
+    // repaint the two squares changed by a move.
+    private void repaintMove ( int m ) {
+        repaintSquare( Move.from( m ) / Board.fCols, Move.from( m ) % Board.fCols );
+        repaintSquare( Move.to( m ) / Board.fCols, Move.to( m ) % Board.fCols );
     }
     //-----------------------------------------------------------------------
     private void play ( Sound s ) {
@@ -185,6 +189,7 @@ class BoardSketcher extends JPanel implements MouseInputListener {
         int  r = e.getY() / size;
         int  c = e.getX() / size;
         System.out.println( "mouseClicked: r=" + r + ", c=" + c );
+        if (isEngineTurn())    return;  //wait for the computer
         if (fromR == -1) {  //are we are waiting for a click on the first (from) piece?
             toR = toC = -1;
             Board.Color  clr = b.getColor( r, c );
@@ -193,11 +198,10 @@ class BoardSketcher extends JPanel implements MouseInputListener {
                 fromR = r;
                 fromC = c;
                 toR = toC = -1;  //next state is waiting for the "to" click
-                repaint();
+                repaintSquare( r, c );
                 play( Sound.firstClick );
             } else {
                 fromR = fromC = -1;
-                repaint();
             }
             return;
         }
@@ -210,12 +214,14 @@ class BoardSketcher extends JPanel implements MouseInputListener {
                 b.mBlacksTurn = !b.mBlacksTurn;
                 if (pieceThere)    play( Sound.capture );      //capture
                 else               play( Sound.secondClick );  //ordinary move
+                if (isEngineTurn())    engine.play( b );
             } else {
                 System.out.println( "bad move" );
                 play( Sound.badMove );
             }
+            repaintSquare( fromR, fromC );  //the selection, or the piece moved away
+            repaintSquare( toR, toC );
             fromR = fromC = toR = toC = -1;
-            repaint();
         }
     }
 
@@ -0,0 +1,84 @@
+/* file: CaptureTable.java
+ *
+ * precomputed legality of a single move/capture, indexed by the attacking
+ * (moving) piece, the defending piece (or rbNone), and the terrain of the
+ * source and destination squares.  the table is built once from the rules
+ * so that the legality check in Board (and BitBoard) is a lookup instead
+ * of a long chain of comparisons.  the geometry of a move (a single step,
+ * or a lion/tiger jump across the river) is checked by the caller.
+ *
+ * rules encoded here:
+ *   - a piece may not capture its own color or enter its own den.
+ *   - only the rat may enter the water.
+ *   - the rat may not attack the elephant from the water.
+ *   - a piece in a trap may be captured by any opponent.  with universal
+ *     traps (the required variation) this is true for every trap;
+ *     otherwise only for a trap on the attacker's side of the board.
+ *   - otherwise a piece may capture an opponent of equal or lower rank,
+ *     except that the rat captures the elephant and not vice versa.
+ */
+public final class CaptureTable {
+
+    //use the required "all traps are universal" variation
+    public static final boolean  fUniversalTraps = true;
+
+    private static final int  fPieces   = Board.bElephant + 1;  //17
+    private static final int  fTerrains = 8;  //the 3 high order bits
+
+    private static final boolean  fTable[] = build( fUniversalTraps );
+    //-----------------------------------------------------------------------
+    private CaptureTable ( ) { }
+    //-----------------------------------------------------------------------
+    // returns true if attacker (e.g., Board.rLion) may move from a square
+    // with terrain fromBoard (e.g., Board.cGround) onto a square with
+    // terrain toBoard that holds defender (or rbNone).
+    public static boolean canMove ( int attacker, int defender, int fromBoard, int toBoard ) {
+        return fTable[ index( attacker, defender, fromBoard, toBoard ) ];
+    }
+    //-----------------------------------------------------------------------
+    private static int index ( int attacker, int defender, int fromBoard, int toBoard ) {
+        return ((attacker * fPieces + defender) * fTerrains + ((fromBoard >>> 5) & 7)) * fTerrains
+                + ((toBoard >>> 5) & 7);
+    }
+    //-----------------------------------------------------------------------
+    private static boolean[] build ( boolean universalTraps ) {
+        final byte  terrain[] = { Board.cNone, Board.cWater, Board.cGround, Board.cRTrap,
+                                  Board.cBTrap, Board.cRDen, Board.cBDen };
+        boolean  table[] = new boolean[ fPieces * fPieces * fTerrains * fTerrains ];
+        for (int a = Board.rRat; a <= Board.bElephant; a++) {
+            for (int d = Board.rbNone; d <= Board.bElephant; d++) {
+                for (byte from : terrain) {
+                    for (byte to : terrain) {
+                        table[ index( a, d, from, to ) ] = rule( a, d, from, to, universalTraps );
+                    }
+                }
+            }
+        }
+        return table;
+    }
+    //-----------------------------------------------------------------------
+    private static boolean rule ( int a, int d, byte from, byte to, boolean universalTraps ) {
+        if (from == Board.cNone || to == Board.cNone)    return false;
+        boolean  aRed  = a <= Board.rElephant;
+        int      aRank = rank( a );
+        if (to == (aRed ? Board.cRDen : Board.cBDen))           return false;
+        if (to == Board.cWater && aRank != Board.rRat)          return false;
+        if (d == Board.rbNone)                                  return true;
+        boolean  dRed  = d <= Board.rElephant;
+        int      dRank = rank( d );
+        if (aRed == dRed)                                       return false;
+        if (aRank == Board.rRat && dRank == Board.rElephant && from == Board.cWater)
+            return false;
+        if (to == Board.cRTrap || to == Board.cBTrap) {
+            if (universalTraps || to == (aRed ? Board.cRTrap : Board.cBTrap))
+                return true;
+        }
+        if (aRank == Board.rRat && dRank == Board.rElephant)    return true;
+        if (aRank == Board.rElephant && dRank == Board.rRat)    return false;
+        return aRank >= dRank;
+    }
+    //-----------------------------------------------------------------------
+    private static int rank ( int p ) {
+        return p > Board.rElephant ? p - Board.rElephant : p;
+    }
+}
@@ -0,0 +1,135 @@
+/* file: EnginePlayer.java
+ *
+ * the computer as one of the players of a game with a human (e.g., in
+ * BoardSketcher).  the engine searches on its own thread, so the caller
+ * (the gui) is never blocked, and tells a Listener about each move.
+ *
+ * with pondering, the engine keeps searching while the human thinks: it
+ * plays the reply that it expects (the second move of its principal
+ * variation) and searches the resulting position without a time limit.
+ *   - if the human plays the expected move (a ponder hit), that search
+ *     simply goes on until it has had the usual time per move, counted
+ *     from when it started.  often it has already had that long, and the
+ *     engine answers at once.
+ *   - otherwise the ponder search is stopped and a new search is started.
+ *     it still profits from everything the ponder search stored in the
+ *     transposition table (e.g., the other replies share most of their
+ *     positions with the expected one).
+ */
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+public class EnginePlayer {
+
+    //-----------------------------------------------------------------------
+    // told about each move of the engine (on the engine's thread).
+    public interface Listener {
+        void moved ( int move );
+    }
+    //-----------------------------------------------------------------------
+    private final SearchEngine     mEngine;
+    private final Board.Color      mSide;
+    private final long             mMoveTime;  //ms
+    private final boolean          mPonder;
+    private final Listener         mListener;
+    private final ExecutorService  mThread;
+    //the ponder search (guarded by this)
+    private boolean  mPondering   = false;
+    private boolean  mPonderHit   = false;
+    private long     mPonderKey   = 0;  //of the position searched
+    private long     mPonderSearch = 0;  //its # in mEngine
+    private long     mPonderStart = 0;
+    //a ponder search that ended by itself (a forced result) before the
+    // human moved, and the key of its position
+    private SearchEngine.Result  mPondered    = null;
+    private long                 mPonderedKey = 0;
+    //-----------------------------------------------------------------------
+    public EnginePlayer ( SearchEngine engine, Board.Color side, long moveTime, boolean ponder,
+                          Listener listener ) {
+        mEngine   = engine;
+        mSide     = side;
+        mMoveTime = moveTime;
+        mPonder   = ponder;
+        mListener = listener;
+        mThread   = Executors.newSingleThreadExecutor( new ThreadFactory() {
+            public Thread newThread ( Runnable r ) {
+                Thread  t = new Thread( r, "engine" );
+                t.setDaemon( true );
+                return t;
+            }
+        } );
+    }
+    //-----------------------------------------------------------------------
+    public Board.Color getSide ( ) {
+        return mSide;
+    }
+    //-----------------------------------------------------------------------
+    // it is the engine's turn in b (b is copied, not changed).  returns at
+    // once; the move is passed to the listener when it has been found.
+    public synchronized void play ( Board b ) {
+        final Board  copy = new Board( b );
+        long  key = copy.getKey();
+        if (mPondering) {
+            if (key == mPonderKey) {  //ponder hit: the ponder search will answer
+                mPonderHit = true;
+                mEngine.setDeadline( mPonderSearch, mPonderStart + mMoveTime );
+                return;
+            }
+            mEngine.setDeadline( mPonderSearch, 0 );  //stop it
+            mPondering = false;
+        }
+        final SearchEngine.Result  known = (mPondered != null && mPonderedKey == key) ? mPondered : null;
+        mPondered = null;
+        mThread.execute( new Runnable() {
+            public void run ( ) {
+                think( copy, known );
+            }
+        } );
+    }
+    //-----------------------------------------------------------------------
+    // stop thinking (e.g., when the game is closed).
+    public synchronized void close ( ) {
+        if (mPondering)    mEngine.setDeadline( mPonderSearch, 0 );
+        mPondering = false;
+        mThread.shutdownNow();
+    }
+    //-----------------------------------------------------------------------
+    // (on the engine's thread) search b, or use r if it is already known,
+    // and play the move; then ponder for as long as the human plays the
+    // expected replies.
+    private void think ( Board b, SearchEngine.Result r ) {
+        while (true) {
+            if (r == null) {
+                mEngine.setTimeLimit( mMoveTime );
+                r = mEngine.search( b );
+            }
+            if (r.move == Move.fNone)    return;  //no legal move
+            mListener.moved( r.move );
+            b.makeMove( r.move );
+
+            int  expected = r.pv.length > 1 ? r.pv[ 1 ] : Move.fNone;
+            if (!mPonder || b.isGameOver() || !b.isLegal( expected ))    return;
+            b.makeMove( expected );
+            if (b.isGameOver())    return;
+            synchronized (this) {
+                mPondering    = true;
+                mPonderHit    = false;
+                mPonderKey    = b.getKey();
+                mPonderSearch = mEngine.getSearchCount() + 1;
+                mPonderStart  = System.currentTimeMillis();
+            }
+            mEngine.setTimeLimit( Long.MAX_VALUE );
+            r = mEngine.search( b );
+            synchronized (this) {
+                if (!mPondering)    return;  //stopped: the human played something else
+                mPondering = false;
+                if (!mPonderHit) {  //ended by itself; keep it for when the human moves
+                    mPondered    = r;
+                    mPonderedKey = b.getKey();
+                    return;
+                }
+            }
+        }
+    }
+}
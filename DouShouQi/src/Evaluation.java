@@ -0,0 +1,91 @@
+/* file: Evaluation.java
+ *
+ * the static evaluation used by the search: one table per piece giving
+ * the value of that piece on each square (material plus position), so the
+ * evaluation of a position is just the sum of the entries of its pieces.
+ *
+ * Board keeps that sum (Board.mEval, from red's point of view) up to date
+ * as pieces are placed and lifted, so evaluating a position is a field
+ * read instead of a scan of the board.  a board given an Nnue (see
+ * Board.setNetwork) is evaluated by that network instead.
+ *
+ * the positional terms (for a piece attacking the den at the other end):
+ *   - getting closer to the opponent's den, more so for the last few steps
+ *   - standing on a trap (where any piece may capture it), scaled by the
+ *     value of the piece
+ *   - the rat in the water (where only the other rat can reach it)
+ *   - the lion and tiger on the squares they jump across the river from
+ * the board is the same when turned upside down, so the tables of black
+ * are those of red, flipped.
+ */
+public final class Evaluation {
+
+    //values of the pieces by rank (index 1 is the rat, 8 the elephant)
+    public static final int  fValue[] = { 0, 400, 200, 250, 300, 450, 800, 900, 1000 };
+
+    private static final int  fSquares = Board.fRows * Board.fCols;
+
+    //the value (for red) of piece p on square s is fTable[ p * fSquares + s ]
+    private static final int  fTable[] = build();
+    //-----------------------------------------------------------------------
+    private Evaluation ( ) { }
+    //-----------------------------------------------------------------------
+    // the value of piece p on square s, from red's point of view.
+    public static int value ( int p, int s ) {
+        return fTable[ p * fSquares + s ];
+    }
+    //-----------------------------------------------------------------------
+    // the evaluation of b for the side to move.
+    public static int evaluate ( Board b ) {
+        if (b.mAccumulator != null)    return b.mAccumulator.evaluate( b.mBlacksTurn );
+        return b.mBlacksTurn ? -b.mEval : b.mEval;
+    }
+    //-----------------------------------------------------------------------
+    // the same sum, computed from scratch (to check Board.mEval).
+    public static int scan ( Board b ) {
+        int  sum = 0;
+        for (int p = Board.rRat; p <= Board.bElephant; p++) {
+            if (b.mPieceSquare[ p ] >= 0)    sum += value( p, b.mPieceSquare[ p ] );
+        }
+        return sum;
+    }
+    //-----------------------------------------------------------------------
+    private static int[] build ( ) {
+        int  table[] = new int[ (Board.bElephant + 1) * fSquares ];
+        for (int rank = Board.rRat; rank <= Board.rElephant; rank++) {
+            for (int r = 0; r < Board.fRows; r++) {
+                for (int c = 0; c < Board.fCols; c++) {
+                    int  v = fValue[ rank ] + positional( rank, r, c );
+                    table[ rank * fSquares + r * Board.fCols + c ] = v;
+                    //black's piece of this rank, on the mirrored square
+                    table[ (rank + Board.rElephant) * fSquares + (Board.fRows - 1 - r) * Board.fCols + c ] = -v;
+                }
+            }
+        }
+        return table;
+    }
+    //-----------------------------------------------------------------------
+    // the positional value of red's piece of the given rank on (r,c).  red
+    // starts at the top and attacks black's den (Board.fBDenSquare).  the
+    // terrain is that of BitBoard's masks.
+    private static int positional ( int rank, int r, int c ) {
+        int   den = Board.fBDenSquare;
+        int   d = Math.abs( den / Board.fCols - r ) + Math.abs( den % Board.fCols - c );  //steps to the den
+        int   v = 3 * (Board.fRows + Board.fCols / 2 - d);
+        if (d <= 2)    v += 40 * (3 - d);
+
+        int   s = r * Board.fCols + c;
+        long  bit = 1L << s;
+        if ((BitBoard.fBTrap & bit) != 0 || ((BitBoard.fRTrap & bit) != 0 && CaptureTable.fUniversalTraps))
+            v -= fValue[ rank ] / 8;
+
+        if (rank == Board.rRat && (BitBoard.fWater & bit) != 0)    v += 30;
+        if (rank == Board.rLion || rank == Board.rTiger) {
+            boolean  jump = false;  //across the river from here
+            for (int dir = 0; dir < 4; dir++)
+                jump |= BitBoard.fJump[ s * 4 + dir ] >= 0;
+            if (jump)    v += 15;
+        }
+        return v;
+    }
+}
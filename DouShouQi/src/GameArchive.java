@@ -0,0 +1,312 @@
+/* file: GameArchive.java
+ *
+ * a compact binary file of many games, written and read as a stream (so
+ * a file may be far larger than the heap).
+ *
+ * a move takes 5 bits: the rank of the moving piece - 1 (3 bits, the
+ * color is that of the side to move) and the direction (2 bits: 0 up, 1
+ * down, 2 left, 3 right).  a lion or tiger moving onto the river jumps
+ * across it, so jumps need no bits of their own; captures follow from the
+ * position.
+ *
+ * file layout (big endian):
+ *   magic "DSQGAME1"
+ *   then for each game:
+ *     u16   # of plies
+ *     u8    result: 0 draw, 1 black won, 2 red won
+ *     u8    flags: 1 if the game starts from a position other than the start
+ *     i64   when the game started (ms since 1970, or 0)
+ *     i32   ms used by black, i32 ms used by red
+ *     u8 + bytes    black's name (utf-8), u8 + bytes    red's name
+ *     16 bytes      the starting position (see Notation), if flagged
+ *     the moves, 5 bits each, from the low bits of each byte up
+ */
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+public final class GameArchive {
+
+    public static final long  fMagic = 0x44535147414d4531L;  //"DSQGAME1"
+
+    private static final Charset  fUtf8 = Charset.forName( "UTF-8" );
+    private static final int      fBufferBytes = 1 << 17;  //more than the largest game
+    private static final int      fMaxPlies = 65535;
+    //the binary form of the usual starting position
+    private static final long  fStartLow  = Notation.packLow( new Board() );
+    private static final long  fStartHigh = Notation.packHigh( new Board() );
+    //-----------------------------------------------------------------------
+    private GameArchive ( ) { }
+
+    //=======================================================================
+    // one game.  a Reader fills the same Record again and again.
+    public static class Record {
+        public String       mBlack = "", mRed = "";  //players
+        public Board.Color  mWinner = null;           //null for a draw
+        public long         mStarted = 0;             //ms since 1970
+        public int          mBlackTime = 0, mRedTime = 0;  //ms
+        public boolean      mCustomStart = false;     //else the usual start
+        public long         mStartLow, mStartHigh;    //see Notation
+        public int          mMoves[] = new int[ 256 ];  //see Move
+        public int          mLength = 0;              //# of moves
+        //-------------------------------------------------------------------
+        // the starting position of the game.
+        public Board start ( ) {
+            Board  b = new Board();
+            if (mCustomStart)    Notation.unpack( b, mStartLow, mStartHigh );
+            return b;
+        }
+        //-------------------------------------------------------------------
+        public void setMoves ( int moves[], int length ) {
+            if (mMoves.length < length)    mMoves = new int[ length ];
+            System.arraycopy( moves, 0, mMoves, 0, length );
+            mLength = length;
+        }
+    }
+    //-----------------------------------------------------------------------
+    // the 5-bit code of a move.
+    public static int encode ( int move ) {
+        int  from = Move.from( move ), to = Move.to( move );
+        int  dir = (to / Board.fCols < from / Board.fCols) ? 0
+                 : (to / Board.fCols > from / Board.fCols) ? 1
+                 : (to < from) ? 2 : 3;
+        int  p = Move.piece( move );
+        return ((p > Board.rElephant ? p - Board.rElephant : p) - 1) << 2 | dir;
+    }
+    //-----------------------------------------------------------------------
+    // the move of b given by a 5-bit code, or Move.fNone if it is not legal.
+    public static int decode ( Board b, int code ) {
+        int  p = (code >>> 2) + 1 + (b.mBlacksTurn ? Board.rElephant : 0);
+        int  from = b.mPieceSquare[ p ];
+        if (from < 0)    return Move.fNone;
+        int  r = from / Board.fCols, c = from % Board.fCols;
+        int  dr = 0, dc = 0;
+        switch (code & 3) {
+            case 0:  dr = -1;  break;
+            case 1:  dr =  1;  break;
+            case 2:  dc = -1;  break;
+            default: dc =  1;  break;
+        }
+        r += dr;
+        c += dc;
+        int  rank = b.getRank( p );
+        if (rank == Board.rLion || rank == Board.rTiger) {  //jump across the river
+            while (b.getBoard( r, c ) == Board.cWater) {
+                r += dr;
+                c += dc;
+            }
+        }
+        if (r < 0 || r >= Board.fRows || c < 0 || c >= Board.fCols)    return Move.fNone;
+        int  m = Move.encode( from, r * Board.fCols + c, p, b.getPiece( r, c ) );
+        return b.isLegal( m ) ? m : Move.fNone;
+    }
+
+    //=======================================================================
+    // appends games to a file.
+    public static class Writer {
+        private final RandomAccessFile  mFile;
+        private final FileChannel       mChannel;
+        private final ByteBuffer        mBuf = ByteBuffer.allocateDirect( fBufferBytes );
+        private long  mGames = 0;
+        //-------------------------------------------------------------------
+        // a new (empty) archive, or one to add to.
+        public Writer ( File file, boolean append ) throws IOException {
+            mFile = new RandomAccessFile( file, "rw" );
+            mChannel = mFile.getChannel();
+            if (append && mChannel.size() > 0) {
+                ByteBuffer  magic = ByteBuffer.allocate( 8 );
+                mChannel.read( magic, 0 );
+                magic.flip();
+                if (magic.remaining() < 8 || magic.getLong() != fMagic) {
+                    mFile.close();
+                    throw new IOException( file + ": not a game archive" );
+                }
+                mChannel.position( mChannel.size() );
+            } else {
+                mChannel.truncate( 0 );
+                mBuf.putLong( fMagic );
+            }
+        }
+        //-------------------------------------------------------------------
+        public long getGames ( ) {
+            return mGames;
+        }
+        //-------------------------------------------------------------------
+        public void write ( Record g ) throws IOException {
+            if (g.mLength > fMaxPlies)    throw new IOException( "game too long: " + g.mLength + " plies" );
+            byte  black[] = name( g.mBlack ), red[] = name( g.mRed );
+            int   moveBytes = (5 * g.mLength + 7) / 8;
+            if (mBuf.remaining() < 64 + black.length + red.length + moveBytes)    flush();
+            mBuf.putShort( (short)g.mLength );
+            mBuf.put( (byte)(g.mWinner == null || g.mWinner == Board.Color.None ? 0
+                             : g.mWinner == Board.Color.Black ? 1 : 2) );
+            mBuf.put( (byte)(g.mCustomStart ? 1 : 0) );
+            mBuf.putLong( g.mStarted ).putInt( g.mBlackTime ).putInt( g.mRedTime );
+            mBuf.put( (byte)black.length ).put( black ).put( (byte)red.length ).put( red );
+            if (g.mCustomStart)    mBuf.putLong( g.mStartHigh ).putLong( g.mStartLow );
+            long  bits = 0;
+            int   n = 0;
+            for (int i = 0; i < g.mLength; i++) {
+                bits |= (long)encode( g.mMoves[ i ] ) << n;
+                n += 5;
+                if (n >= 8) {
+                    mBuf.put( (byte)bits );
+                    bits >>>= 8;
+                    n -= 8;
+                }
+            }
+            if (n > 0)    mBuf.put( (byte)bits );
+            mGames++;
+        }
+        //-------------------------------------------------------------------
+        // (at most 255 bytes)
+        private static byte[] name ( String s ) {
+            byte  b[] = s.getBytes( fUtf8 );
+            while (b.length > 255) {
+                s = s.substring( 0, s.length() - 1 );
+                b = s.getBytes( fUtf8 );
+            }
+            return b;
+        }
+        //-------------------------------------------------------------------
+        public void flush ( ) throws IOException {
+            mBuf.flip();
+            while (mBuf.hasRemaining())    mChannel.write( mBuf );
+            mBuf.clear();
+        }
+        //-------------------------------------------------------------------
+        public void close ( ) throws IOException {
+            try {
+                flush();
+            } finally {
+                mFile.close();
+            }
+        }
+    }
+
+    //=======================================================================
+    // reads the games of a file, one after another.
+    public static class Reader {
+        private final RandomAccessFile  mFile;
+        private final FileChannel       mChannel;
+        private final ByteBuffer        mBuf = ByteBuffer.allocateDirect( fBufferBytes );
+        private final Board             mBoard = new Board();
+        private final byte              mName[] = new byte[ 255 ];
+        private long  mGames = 0;
+        //-------------------------------------------------------------------
+        public Reader ( File file ) throws IOException {
+            mFile = new RandomAccessFile( file, "r" );
+            mChannel = mFile.getChannel();
+            mBuf.flip();  //empty
+            if (!fill( 8 ) || mBuf.getLong() != fMagic) {
+                mFile.close();
+                throw new IOException( file + ": not a game archive" );
+            }
+        }
+        //-------------------------------------------------------------------
+        // the # of games read so far.
+        public long getGames ( ) {
+            return mGames;
+        }
+        //-------------------------------------------------------------------
+        // read the next game into g; false at the end of the file.  the
+        // moves are checked by replaying them.
+        public boolean next ( Record g ) throws IOException {
+            if (!fill( 1 ))    return false;
+            need( 20 );
+            int  length = mBuf.getShort() & 0xffff;
+            int  result = mBuf.get();
+            int  flags  = mBuf.get();
+            g.mWinner = result == 1 ? Board.Color.Black : result == 2 ? Board.Color.Red : null;
+            g.mCustomStart = (flags & 1) != 0;
+            g.mStarted   = mBuf.getLong();
+            g.mBlackTime = mBuf.getInt();
+            g.mRedTime   = mBuf.getInt();
+            g.mBlack = name();
+            g.mRed   = name();
+            if (g.mCustomStart) {
+                need( 16 );
+                g.mStartHigh = mBuf.getLong();
+                g.mStartLow  = mBuf.getLong();
+                try {
+                    Notation.unpack( mBoard, g.mStartLow, g.mStartHigh );
+                } catch (IllegalArgumentException e) {
+                    throw new IOException( "game " + mGames + ": " + e.getMessage() );
+                }
+            } else {
+                Notation.unpack( mBoard, fStartLow, fStartHigh );
+            }
+
+            need( (5 * length + 7) / 8 );
+            if (g.mMoves.length < length)    g.mMoves = new int[ length ];
+            long  bits = 0;
+            int   n = 0;
+            for (int i = 0; i < length; i++) {
+                if (n < 5) {
+                    bits |= (long)(mBuf.get() & 0xff) << n;
+                    n += 8;
+                }
+                int  m = decode( mBoard, (int)bits & 31 );
+                bits >>>= 5;
+                n -= 5;
+                if (m == Move.fNone)    throw new IOException( "game " + mGames + ": illegal move " + i );
+                g.mMoves[ i ] = m;
+                mBoard.makeMove( m );
+            }
+            g.mLength = length;
+            mGames++;
+            return true;
+        }
+        //-------------------------------------------------------------------
+        private String name ( ) throws IOException {
+            need( 1 );
+            int  len = mBuf.get() & 0xff;
+            need( len );
+            mBuf.get( mName, 0, len );
+            return new String( mName, 0, len, fUtf8 );
+        }
+        //-------------------------------------------------------------------
+        // make sure that n more bytes are buffered; false at the end of the file.
+        private boolean fill ( int n ) throws IOException {
+            if (mBuf.remaining() >= n)    return true;
+            mBuf.compact();
+            while (mBuf.position() < n && mChannel.read( mBuf ) >= 0) { }
+            mBuf.flip();
+            return mBuf.remaining() >= n;
+        }
+        private void need ( int n ) throws IOException {
+            if (!fill( n ))    throw new EOFException( "game " + mGames + " is cut off" );
+        }
+        //-------------------------------------------------------------------
+        public void close ( ) throws IOException {
+            mFile.close();
+        }
+    }
+    //-----------------------------------------------------------------------
+    // list the games of an archive, e.g., java GameArchive games.dsq
+    public static void main ( String[] args ) throws IOException {
+        Reader  in = new Reader( new File( args[ 0 ] ) );
+        Record  g = new Record();
+        int     results[] = new int[ 3 ];
+        long    plies = 0;
+        try {
+            while (in.next( g )) {
+                results[ g.mWinner == null ? 0 : g.mWinner == Board.Color.Black ? 1 : 2 ]++;
+                plies += g.mLength;
+                if (args.length > 1 && args[ 1 ].equals( "-v" )) {
+                    System.out.println( g.mBlack + " - " + g.mRed + "  "
+                            + (g.mWinner == null ? "1/2-1/2" : g.mWinner == Board.Color.Black ? "1-0" : "0-1")
+                            + "  " + g.mLength + " plies" );
+                }
+            }
+        } finally {
+            in.close();
+        }
+        System.out.println( in.getGames() + " games (black " + results[ 1 ] + ", red " + results[ 2 ]
+                + ", draws " + results[ 0 ] + "), " + plies + " plies" );
+    }
+}
@@ -9,11 +9,14 @@ import javax.swing.JFrame;
 
 public class Main {
 
+    //with no args, two people play.  otherwise the computer plays one
+    // side, e.g., java Main red 2000 (ms per move) noponder
     public static void main(String[] args) {
         Board b = new Board();
+        BoardSketcher sketcher = new BoardSketcher(b);
 
         JFrame frame = new JFrame("Dou Shou Qi / Jungle Chess");
-        frame.getContentPane().add(new BoardSketcher(b), BorderLayout.CENTER);
+        frame.getContentPane().add(sketcher, BorderLayout.CENTER);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setSize(BoardSketcher.size * Board.fCols,
                 BoardSketcher.size * Board.fRows);
@@ -28,6 +31,13 @@ public class Main {
         //System.out.println( "right = " + in.right );
         frame.setSize(BoardSketcher.size * Board.fCols + in.left + in.right + 1,
                 BoardSketcher.size * Board.fRows + in.top + in.bottom + 1);
+
+        if (args.length > 0) {
+            Board.Color side = args[0].equalsIgnoreCase("black") ? Board.Color.Black : Board.Color.Red;
+            long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+            boolean ponder = !(args.length > 2 && args[2].equals("noponder"));
+            sketcher.setEngine(new EnginePlayer(new SearchEngine(), side, millis, ponder, sketcher));
+        }
     }
 
 }
@@ -0,0 +1,337 @@
+/* file: MctsEngine.java
+ *
+ * a computer player for Board by monte carlo tree search, as an
+ * alternative to SearchEngine.  each iteration
+ *   1. walks down the tree from the root, choosing the child with the best
+ *      uct value (its win rate plus a bonus for being visited rarely),
+ *   2. expands the node it ends at (adds a child for every legal move),
+ *   3. plays the game out from there with fast, lightly guided random
+ *      moves (a den entry is always taken, a capture often), and
+ *   4. adds the result to every node on the way back up.
+ * the move played is the most visited child of the root.
+ *
+ * the tree lives in parallel arrays of primitives, allocated once (like
+ * the TranspositionTable), so a search never allocates a node.  the
+ * children of a node are consecutive entries, so a node only needs its
+ * first child and their count.
+ *
+ * with more than one thread, all threads work on the same tree ("tree
+ * parallel").  visits and results are atomic counters.  a thread adds a
+ * virtual loss (visits without wins) to every node on its way down and
+ * takes it back on its way up, so the other threads are steered to other
+ * branches meanwhile.  a node is expanded by one thread only: it claims
+ * the node with a compare-and-set, and publishes the children once they
+ * are filled in.
+ *
+ * results are counted in half points: 2 for a win, 1 for a draw, for the
+ * player who made the move leading to the node.
+ */
+import java.io.PrintStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MctsEngine {
+
+    public static final int  fNodeBytes = 17;  //per node, for all the arrays
+
+    private static final double  fExploration = 1.0;   //c of uct (for results in 0..1)
+    private static final int     fVirtualLoss = 3;
+    private static final int     fMaxPath     = 256;   //deepest walk down the tree
+    private static final int     fPlayoutPlies = 120;  //then the evaluation decides
+    private static final int     fDrawMargin  = 100;   //evaluations closer to 0 are draws
+    //mFirst of a node that is not expanded, being expanded, or has no moves
+    private static final int     fLeaf = 0, fExpanding = -1, fTerminal = -2;
+    //-----------------------------------------------------------------------
+    //the tree (node 0 is the root)
+    private final int                 mMove[];        //the move that leads to each node
+    private final byte                mChildCount[];
+    private final AtomicIntegerArray  mFirst;         //first child (or fLeaf, ...)
+    private final AtomicIntegerArray  mVisits;
+    private final AtomicIntegerArray  mWins;          //half points
+    private final AtomicInteger       mUsed = new AtomicInteger();  //# of nodes
+    //-----------------------------------------------------------------------
+    private long         mNodeLimit = Long.MAX_VALUE;  //playouts
+    private long         mTimeLimit = Long.MAX_VALUE;  //milliseconds
+    private PrintStream  mOut       = null;
+    private int          mThreads   = 1;
+    private ExecutorService  mPool  = null;  //runs the helper threads
+
+    private final AtomicLong  mPlayouts = new AtomicLong();
+    private volatile boolean  mStop     = false;
+    private volatile long     mDeadline = Long.MAX_VALUE;
+    //-----------------------------------------------------------------------
+    // a tree of (at most) the given size.
+    public MctsEngine ( long megabytes ) {
+        int  nodes = (int)Math.min( Integer.MAX_VALUE - 8, Math.max( 1024, (megabytes << 20) / fNodeBytes ) );
+        mMove       = new int[ nodes ];
+        mChildCount = new byte[ nodes ];
+        mFirst      = new AtomicIntegerArray( nodes );
+        mVisits     = new AtomicIntegerArray( nodes );
+        mWins       = new AtomicIntegerArray( nodes );
+    }
+    //-----------------------------------------------------------------------
+    public void setNodeLimit ( long playouts ) { mNodeLimit = playouts;  }
+    public void setTimeLimit ( long millis )   { mTimeLimit = millis;    }
+    public void setOutput ( PrintStream out )  { mOut = out;             }
+    //-----------------------------------------------------------------------
+    // the number of threads used by each search (default 1).
+    public void setThreads ( int threads ) {
+        threads = Math.max( 1, threads );
+        if (threads == mThreads)    return;
+        if (mPool != null)    mPool.shutdown();
+        mPool = null;
+        mThreads = threads;
+        if (threads > 1) {
+            mPool = Executors.newFixedThreadPool( threads - 1, new ThreadFactory() {
+                public Thread newThread ( Runnable r ) {
+                    Thread  t = new Thread( r, "mcts helper" );
+                    t.setDaemon( true );
+                    return t;
+                }
+            } );
+        }
+    }
+    public int getThreads ( ) {
+        return mThreads;
+    }
+    //-----------------------------------------------------------------------
+    // the # of nodes the tree has room for.
+    public int capacity ( ) {
+        return mMove.length;
+    }
+    //-----------------------------------------------------------------------
+    // ask a running search (from another thread) to return as soon as
+    // possible.
+    public void stop ( ) {
+        mStop = true;
+    }
+    //-----------------------------------------------------------------------
+    // search the given position (which is not changed) for the side to
+    // move.  the result's score is the win rate of the move, from -1000
+    // (all lost) to 1000 (all won); its nodes are the # of playouts.
+    public SearchEngine.Result search ( Board root ) {
+        long  start = System.currentTimeMillis();
+        mStop = false;
+        mDeadline = (mTimeLimit == Long.MAX_VALUE) ? Long.MAX_VALUE : start + mTimeLimit;
+        mPlayouts.set( 0 );
+        mUsed.set( 1 );
+        reset( 0, Move.fNone );
+
+        Worker  workers[] = new Worker[ mThreads ];
+        for (int i = 0; i < mThreads; i++)
+            workers[ i ] = new Worker( root, i );
+        Future<?>  helpers[] = new Future<?>[ mThreads ];
+        for (int i = 1; i < mThreads; i++)
+            helpers[ i ] = mPool.submit( workers[ i ] );
+        workers[ 0 ].run();
+        mStop = true;
+        for (int i = 1; i < mThreads; i++) {
+            try {
+                helpers[ i ].get();
+            } catch (Exception e) {
+                throw new IllegalStateException( "mcts helper failed", e );
+            }
+        }
+
+        SearchEngine.Result  r = new SearchEngine.Result();
+        int  pv[] = new int[ fMaxPath ];
+        int  n = 0;
+        for (int node = 0; n < fMaxPath; ) {
+            int  child = mostVisited( node );
+            if (child < 0)    break;
+            pv[ n++ ] = mMove[ child ];
+            node = child;
+        }
+        r.pv    = java.util.Arrays.copyOf( pv, n );
+        r.move  = n > 0 ? pv[ 0 ] : Move.fNone;
+        r.depth = n;
+        if (n > 0) {
+            int  child = mostVisited( 0 );
+            r.score = (int)(1000L * (mWins.get( child ) - mVisits.get( child )) / Math.max( 1, mVisits.get( child ) ));
+        }
+        r.nodes = mPlayouts.get();
+        r.time  = System.currentTimeMillis() - start;
+        if (mOut != null)    mOut.println( r + " tree " + Math.min( mUsed.get(), capacity() ) );
+        return r;
+    }
+    //-----------------------------------------------------------------------
+    // the most visited child of node, or -1 if it has none.
+    private int mostVisited ( int node ) {
+        int  first = mFirst.get( node );
+        if (first <= 0)    return -1;
+        int  best = -1;
+        for (int c = first; c < first + mChildCount[ node ]; c++) {
+            if (best < 0 || mVisits.get( c ) > mVisits.get( best ))    best = c;
+        }
+        return mVisits.get( best ) > 0 ? best : -1;
+    }
+    //-----------------------------------------------------------------------
+    private void reset ( int node, int move ) {
+        mMove[ node ] = move;
+        mChildCount[ node ] = 0;
+        mVisits.set( node, 0 );
+        mWins.set( node, 0 );
+        mFirst.set( node, fLeaf );
+    }
+
+    //=======================================================================
+    // one search thread: its own copy of the root, its own random numbers.
+    private class Worker implements Runnable {
+        final Board  mBoard;
+        final int    mPath[]  = new int[ fMaxPath + 1 ];
+        final int    mMoves[] = new int[ Board.fMaxMoves ];
+        long         mRandom;
+
+        Worker ( Board root, int id ) {
+            mBoard = new Board( root );
+            mRandom = 0x9e3779b97f4a7c15L * (id + 1) ^ System.nanoTime();
+        }
+        //-------------------------------------------------------------------
+        public void run ( ) {
+            while (!mStop) {
+                iterate();
+                long  total = mPlayouts.incrementAndGet();
+                //a playout may take up to fPlayoutPlies plies, so the clock
+                // is read after every one (which costs far less)
+                if (total >= mNodeLimit || mUsed.get() >= capacity()
+                        || System.currentTimeMillis() >= mDeadline)
+                    mStop = true;
+            }
+        }
+        //-------------------------------------------------------------------
+        // one walk down the tree, a playout, and the walk back up.
+        private void iterate ( ) {
+            int  node = 0, length = 0;
+            mPath[ length++ ] = node;
+            mVisits.addAndGet( node, fVirtualLoss );
+            while (length <= fMaxPath) {
+                int  first = mFirst.get( node );
+                if (first == fLeaf && mVisits.get( node ) > fVirtualLoss && !mBoard.isGameOver())
+                    first = expand( node );
+                if (first <= 0)    break;
+                node = select( node, first );
+                mBoard.makeMove( mMove[ node ] );
+                mPath[ length++ ] = node;
+                mVisits.addAndGet( node, fVirtualLoss );
+            }
+            int  result = playout();  //for the side to move at the leaf
+            for (int i = length - 1; i >= 0; i--) {
+                result = 2 - result;  //for the player who moved into mPath[ i ]
+                mWins.addAndGet( mPath[ i ], result );
+                mVisits.addAndGet( mPath[ i ], 1 - fVirtualLoss );
+                if (i > 0)    mBoard.unmakeMove();
+            }
+        }
+        //-------------------------------------------------------------------
+        // add the children of node (the position on mBoard), unless another
+        // thread is at it or the tree is full.  returns mFirst of node.
+        private int expand ( int node ) {
+            if (!mFirst.compareAndSet( node, fLeaf, fExpanding ))    return mFirst.get( node );
+            int  n = mBoard.generateMoves( mBoard.mBlacksTurn ? Board.Color.Black : Board.Color.Red, mMoves );
+            if (n == 0) {
+                mFirst.set( node, fTerminal );
+                return fTerminal;
+            }
+            int  first = mUsed.getAndAdd( n );
+            if (first + n > capacity()) {  //full: stays a leaf
+                mFirst.set( node, fLeaf );
+                return fLeaf;
+            }
+            for (int i = 0; i < n; i++)
+                reset( first + i, mMoves[ i ] );
+            mChildCount[ node ] = (byte)n;
+            mFirst.set( node, first );  //publishes the children
+            return first;
+        }
+        //-------------------------------------------------------------------
+        // the child of node with the best uct value (an unvisited child first).
+        private int select ( int node, int first ) {
+            double  logParent = Math.log( Math.max( 1, mVisits.get( node ) ) );
+            int     best = first;
+            double  bestValue = -1;
+            for (int c = first; c < first + mChildCount[ node ]; c++) {
+                int  v = mVisits.get( c );
+                if (v == 0)    return c;
+                double  value = mWins.get( c ) / (2.0 * v) + fExploration * Math.sqrt( logParent / v );
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = c;
+                }
+            }
+            return best;
+        }
+        //-------------------------------------------------------------------
+        // play on from mBoard and take the moves back.  returns 2 if the side
+        // to move wins, 1 for a draw, and 0 if it loses.
+        private int playout ( ) {
+            boolean  black = mBoard.mBlacksTurn;
+            int      result = -1;  //for the side to move at the end
+            int      plies = 0;
+            for (; plies < fPlayoutPlies; plies++) {
+                if (SearchEngine.isLost( mBoard )) {
+                    result = 0;
+                    break;
+                }
+                int  n = mBoard.generateMoves( mBoard.mBlacksTurn ? Board.Color.Black : Board.Color.Red, mMoves );
+                if (n == 0) {
+                    result = 0;
+                    break;
+                }
+                int  m = choose( n );
+                if (SearchEngine.isDenEntry( m )) {
+                    result = 2;
+                    break;
+                }
+                mBoard.makeMove( m );
+            }
+            if (result < 0) {
+                int  e = Evaluation.evaluate( mBoard );
+                result = e > fDrawMargin ? 2 : e < -fDrawMargin ? 0 : 1;
+            }
+            if (mBoard.mBlacksTurn != black)    result = 2 - result;
+            for (; plies > 0; plies--)    mBoard.unmakeMove();
+            return result;
+        }
+        //-------------------------------------------------------------------
+        // a den entry if there is one, else a capture (half of the time),
+        // else any move.
+        private int choose ( int n ) {
+            int  captures = 0;
+            for (int i = 0; i < n; i++) {
+                int  m = mMoves[ i ];
+                if (SearchEngine.isDenEntry( m ))    return m;
+                if (Move.isCapture( m )) {
+                    mMoves[ i ] = mMoves[ captures ];
+                    mMoves[ captures++ ] = m;
+                }
+            }
+            int  r = random();
+            if (captures > 0 && (r & 1) == 0)    return mMoves[ (r >>> 1) % captures ];
+            return mMoves[ (r >>> 1) % n ];
+        }
+        //-------------------------------------------------------------------
+        // (xorshift)
+        private int random ( ) {
+            mRandom ^= mRandom << 13;
+            mRandom ^= mRandom >>> 7;
+            mRandom ^= mRandom << 17;
+            return (int)(mRandom >>> 33);
+        }
+    }
+    //-----------------------------------------------------------------------
+    // search the starting position, e.g., java MctsEngine 5000 8 64
+    // (milliseconds, threads, and megabytes for the tree).
+    public static void main ( String[] args ) {
+        MctsEngine  e = new MctsEngine( args.length > 2 ? Long.parseLong( args[ 2 ] ) : 64 );
+        e.setTimeLimit( args.length > 0 ? Long.parseLong( args[ 0 ] ) : 5000 );
+        if (args.length > 1)    e.setThreads( Integer.parseInt( args[ 1 ] ) );
+        e.setOutput( System.out );
+        SearchEngine.Result  r = e.search( new Board() );
+        System.out.println( "best " + Move.toString( r.move ) + ", " + r.nps() + " playouts/s" );
+    }
+}
@@ -0,0 +1,63 @@
+/* file: Move.java
+ *
+ * moves are packed into a single int so that move lists are plain int
+ * arrays and nothing is allocated while generating or searching them.
+ *
+ *   bits  0..5   from square (r * Board.fCols + c)
+ *   bits  6..11  to square
+ *   bits 12..16  moving piece (e.g., Board.rLion)
+ *   bits 17..21  captured piece (or Board.rbNone)
+ *
+ * a legal move never has from == to, so fNone (0) is never a move.
+ */
+public final class Move {
+
+    public static final int  fNone = 0;
+
+    private static final String  fNames[] = { "",
+            "rRa", "rCa", "rDo", "rWo", "rLe", "rTi", "rLi", "rEl",
+            "bRa", "bCa", "bDo", "bWo", "bLe", "bTi", "bLi", "bEl" };
+    //-----------------------------------------------------------------------
+    private Move ( ) { }
+    //-----------------------------------------------------------------------
+    public static int encode ( int from, int to, int piece, int captured ) {
+        return from | (to << 6) | (piece << 12) | (captured << 17);
+    }
+    //-----------------------------------------------------------------------
+    public static int from     ( int m )  { return m & 0x3f;            }
+    public static int to       ( int m )  { return (m >>> 6) & 0x3f;    }
+    public static int piece    ( int m )  { return (m >>> 12) & 0x1f;   }
+    public static int captured ( int m )  { return (m >>> 17) & 0x1f;   }
+    public static int fromRow  ( int m )  { return from( m ) / Board.fCols;  }
+    public static int fromCol  ( int m )  { return from( m ) % Board.fCols;  }
+    public static int toRow    ( int m )  { return to( m ) / Board.fCols;    }
+    public static int toCol    ( int m )  { return to( m ) % Board.fCols;    }
+    //-----------------------------------------------------------------------
+    // the short name of a piece (e.g., "bLi" for Board.bLion), and back
+    // (rbNone for an unknown name).
+    public static String pieceName ( int p ) {
+        return (p > Board.rbNone && p <= Board.bElephant) ? fNames[ p ] : "";
+    }
+    public static int parsePiece ( String name ) {
+        for (int p = Board.rRat; p <= Board.bElephant; p++) {
+            if (fNames[ p ].equalsIgnoreCase( name ))    return p;
+        }
+        return Board.rbNone;
+    }
+    //-----------------------------------------------------------------------
+    public static boolean isCapture ( int m ) {
+        return captured( m ) != Board.rbNone;
+    }
+    //-----------------------------------------------------------------------
+    // e.g., "rLi 2,1-6,1" or "bRa 3,1x3,2rRa" (row,col of each square).
+    public static String toString ( int m ) {
+        if (m == fNone)    return "none";
+        StringBuilder  sb = new StringBuilder( 16 );
+        sb.append( fNames[ piece( m ) ] ).append( ' ' )
+          .append( fromRow( m ) ).append( ',' ).append( fromCol( m ) )
+          .append( isCapture( m ) ? 'x' : '-' )
+          .append( toRow( m ) ).append( ',' ).append( toCol( m ) );
+        if (isCapture( m ))    sb.append( fNames[ captured( m ) ] );
+        return sb.toString();
+    }
+}
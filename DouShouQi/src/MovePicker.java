@@ -0,0 +1,203 @@
+/* file: MovePicker.java
+ *
+ * hands out the moves of a position one at a time, best first, for the
+ * search.  the moves are handed out in stages, and each stage only does
+ * its work when the one before it is used up:
+ *   1. the hash move (from the transposition table or the last principal
+ *      variation), before any moves are generated
+ *   2. den entries, then captures by most valuable victim / least valuable
+ *      attacker (by rank, so a rat taking the elephant comes first)
+ *   3. the killer moves of this ply (quiet moves that caused a cutoff in
+ *      a sibling position)
+ *   4. the other quiet moves, by their history score
+ * so if a cutoff comes early, the later moves are never scored or sorted.
+ * every stage picks its best remaining move by selection.
+ *
+ * the killers and the butterfly history table (indexed by the color, from
+ * square, and to square of a move) belong to one search thread and are
+ * kept in a MovePicker.History.
+ */
+public class MovePicker {
+
+    private static final int  fHash = 0, fGenerate = 1, fTactical = 2, fKillers = 3,
+                              fQuietScore = 4, fQuiet = 5, fDone = 6;  //stages
+
+    private static final int  fSquares    = Board.fRows * Board.fCols;
+    private static final int  fHistoryMax = 1 << 14;  //history scores stay within +-fHistoryMax
+
+    //=======================================================================
+    // the killer moves (2 per ply) and history scores of one search thread.
+    public static class History {
+        final int  mKillers[][] = new int[ SearchEngine.fMaxDepth + 1 ][ 2 ];
+        final int  mScores[]    = new int[ 2 * fSquares * fSquares ];
+        //-------------------------------------------------------------------
+        // the history score of a (quiet) move.
+        public int score ( int m ) {
+            return mScores[ index( m ) ];
+        }
+        //-------------------------------------------------------------------
+        // quiet move m caused a cutoff at the given ply and depth, after the
+        // quiet moves that picker handed out before it had failed.  m becomes
+        // a killer, its history score goes up, and theirs go down.
+        public void cutoff ( MovePicker picker, int m, int ply, int depth ) {
+            int  k[] = mKillers[ ply ];
+            if (k[ 0 ] != m) {
+                k[ 1 ] = k[ 0 ];
+                k[ 0 ] = m;
+            }
+            int  bonus = Math.min( depth * depth, 400 );
+            add( m, bonus );
+            for (int i = 0; i < picker.mTriedCount; i++) {
+                if (picker.mTried[ i ] != m)    add( picker.mTried[ i ], -bonus );
+            }
+        }
+        //-------------------------------------------------------------------
+        // (the more a score already agrees with bonus, the less it changes)
+        private void add ( int m, int bonus ) {
+            int  i = index( m );
+            mScores[ i ] += bonus - mScores[ i ] * Math.abs( bonus ) / fHistoryMax;
+        }
+        //-------------------------------------------------------------------
+        private static int index ( int m ) {
+            int  color = Move.piece( m ) > Board.rElephant ? 1 : 0;
+            return (color * fSquares + Move.from( m )) * fSquares + Move.to( m );
+        }
+    }
+    //-----------------------------------------------------------------------
+    private final History  mHistory;
+    private final int  mMoves[]  = new int[ Board.fMaxMoves ];
+    private final int  mScores[] = new int[ Board.fMaxMoves ];
+    private final int  mTried[]  = new int[ Board.fMaxMoves ];  //quiet moves handed out
+    private Board    mBoard;
+    private int      mHashMove, mPly;
+    private boolean  mTacticalOnly;
+    private int      mStage;
+    private int      mCount;     //# of moves generated
+    private int      mTactical;  //moves [0, mTactical) are den entries and captures
+    private int      mNext;      //the next move to consider
+    private int      mKiller;    //the next killer slot
+    private int      mTriedCount;
+    //-----------------------------------------------------------------------
+    public MovePicker ( History history ) {
+        mHistory = history;
+    }
+    //-----------------------------------------------------------------------
+    // start on the moves of b (the side to move) at the given ply.  hashMove
+    // (or Move.fNone) is tried first if it is legal.  with tacticalOnly, only
+    // den entries and captures are handed out (e.g., for quiescence).
+    public void init ( Board b, int hashMove, int ply, boolean tacticalOnly ) {
+        mBoard = b;
+        mPly = ply;
+        mTacticalOnly = tacticalOnly;
+        mHashMove = (hashMove != Move.fNone && b.isLegal( hashMove )
+                     && (!tacticalOnly || isTactical( hashMove ))) ? hashMove : Move.fNone;
+        mStage = (mHashMove != Move.fNone) ? fHash : fGenerate;
+        mCount = -1;
+        mTriedCount = 0;
+    }
+    //-----------------------------------------------------------------------
+    // the # of legal moves in the position (tactical or not).
+    public int legalMoves ( ) {
+        if (mCount < 0)    generate();
+        return mCount;
+    }
+    //-----------------------------------------------------------------------
+    // true if m enters the opponent's den or captures.
+    public static boolean isTactical ( int m ) {
+        return Move.isCapture( m ) || SearchEngine.isDenEntry( m );
+    }
+    //-----------------------------------------------------------------------
+    // the next move, or Move.fNone when there are no more.
+    public int next ( ) {
+        while (true) {
+            switch (mStage) {
+                case fHash:
+                    mStage = fGenerate;
+                    return isTactical( mHashMove ) ? mHashMove : tried( mHashMove );
+                case fGenerate:
+                    if (mCount < 0)    generate();
+                    mNext = 0;
+                    mStage = fTactical;
+                    break;
+                case fTactical:
+                    if (mNext < mTactical) {
+                        int  m = pick( mNext++, mTactical );
+                        if (m != mHashMove)    return m;
+                    } else {
+                        mStage = mTacticalOnly ? fDone : fKillers;
+                        mKiller = 0;
+                    }
+                    break;
+                case fKillers:
+                    if (mKiller < 2) {
+                        int  m = mHistory.mKillers[ mPly ][ mKiller++ ];
+                        if (m != Move.fNone && m != mHashMove && take( m ))    return tried( m );
+                    } else {
+                        mStage = fQuietScore;
+                    }
+                    break;
+                case fQuietScore:
+                    for (int i = mNext; i < mCount; i++)
+                        mScores[ i ] = mHistory.score( mMoves[ i ] );
+                    mStage = fQuiet;
+                    break;
+                case fQuiet:
+                    if (mNext < mCount) {
+                        int  m = pick( mNext++, mCount );
+                        if (m != mHashMove)    return tried( m );
+                    } else {
+                        mStage = fDone;
+                    }
+                    break;
+                default:
+                    return Move.fNone;
+            }
+        }
+    }
+    //-----------------------------------------------------------------------
+    // generate the moves, with the tactical ones (scored) first.
+    private void generate ( ) {
+        int  n = mBoard.generateMoves( mBoard.mBlacksTurn ? Board.Color.Black : Board.Color.Red, mMoves );
+        int  k = 0;
+        for (int i = 0; i < n; i++) {
+            int  m = mMoves[ i ];
+            if (!isTactical( m ))    continue;
+            mMoves[ i ] = mMoves[ k ];
+            mMoves[ k ] = m;
+            mScores[ k ] = SearchEngine.isDenEntry( m ) ? 1 << 20
+                         : 16 * mBoard.getRank( Move.captured( m ) ) - mBoard.getRank( Move.piece( m ) );
+            k++;
+        }
+        mCount = n;
+        mTactical = k;
+    }
+    //-----------------------------------------------------------------------
+    // if m is one of the quiet moves not handed out yet, move it to mNext
+    // (so it is not handed out again) and return true.
+    private boolean take ( int m ) {
+        for (int i = mNext; i < mCount; i++) {
+            if (mMoves[ i ] == m) {
+                mMoves[ i ] = mMoves[ mNext ];
+                mMoves[ mNext++ ] = m;
+                return true;
+            }
+        }
+        return false;
+    }
+    //-----------------------------------------------------------------------
+    private int tried ( int m ) {
+        mTried[ mTriedCount++ ] = m;
+        return m;
+    }
+    //-----------------------------------------------------------------------
+    // move the best scored of moves[i..n) to i and return it.
+    private int pick ( int i, int n ) {
+        int  best = i;
+        for (int j = i + 1; j < n; j++) {
+            if (mScores[ j ] > mScores[ best ])    best = j;
+        }
+        int  m = mMoves[ best ];     mMoves[ best ] = mMoves[ i ];     mMoves[ i ] = m;
+        int  s = mScores[ best ];    mScores[ best ] = mScores[ i ];   mScores[ i ] = s;
+        return m;
+    }
+}
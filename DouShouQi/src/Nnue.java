@@ -0,0 +1,220 @@
+/* file: Nnue.java
+ *
+ * an efficiently updatable neural network ("nnue") for evaluating
+ * positions, with integer weights, on the cpu.
+ *
+ * the network:
+ *   - the input is one feature per piece and square (16 x 63), seen from
+ *     the side of one player: from black's side the colors are swapped and
+ *     the board is turned upside down, so both sides share the weights.
+ *   - the first layer (int16 weights and biases) gives fHidden values per
+ *     side, the accumulators.  as only a few features change per move,
+ *     Board keeps both accumulators up to date as pieces are placed and
+ *     lifted (like the zobrist key and Board.mEval): a move adds and
+ *     subtracts a few rows of weights instead of computing the layer.
+ *   - the accumulators of the side to move and of the other side are
+ *     clipped to 0..fQA and go through the output layer (int8 weights,
+ *     int32 bias), scaled to the units of Evaluation.
+ *
+ * the loops are plain scalar loops over short arrays, written so that the
+ * jit can turn them into simd instructions.
+ *
+ * a network is read from a file (see load), or made from the piece-square
+ * tables of Evaluation (see fromEvaluation), so that it plays like the
+ * usual evaluation until a trained network is available.
+ *
+ * file layout (big endian):
+ *   magic "DSQNNUE1", int fHidden
+ *   short first layer weights [ feature ][ fHidden ], short biases [ fHidden ]
+ *   byte output weights [ 2 * fHidden ] (side to move, then the other side)
+ *   int output bias
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public final class Nnue {
+
+    public static final long  fMagic    = 0x4453514e4e554531L;  //"DSQNNUE1"
+    public static final int   fSquares  = Board.fRows * Board.fCols;
+    public static final int   fFeatures = Board.bElephant * fSquares;  //16 pieces x 63 squares
+    public static final int   fHidden   = 64;    //accumulator values per side
+    public static final int   fQA       = 255;   //clipping of the accumulators (1.0)
+    public static final int   fQB       = 64;    //scale of the output weights (1.0)
+    public static final int   fScale    = 1600;  //an output of 1.0 is worth this much
+
+    private final short  mWeights[] = new short[ fFeatures * fHidden ];
+    private final short  mBiases[]  = new short[ fHidden ];
+    private final byte   mOutput[]  = new byte[ 2 * fHidden ];
+    private int          mOutputBias = 0;
+
+    //=======================================================================
+    // the accumulators of one board (from the sides of red and of black).
+    public static final class Accumulator {
+        final Nnue   mNet;
+        final short  mRed[]   = new short[ fHidden ];
+        final short  mBlack[] = new short[ fHidden ];
+        //-------------------------------------------------------------------
+        Accumulator ( Nnue net ) {
+            mNet = net;
+            clear();
+        }
+        Accumulator ( Accumulator a ) {
+            mNet = a.mNet;
+            System.arraycopy( a.mRed, 0, mRed, 0, fHidden );
+            System.arraycopy( a.mBlack, 0, mBlack, 0, fHidden );
+        }
+        //-------------------------------------------------------------------
+        // no pieces.
+        void clear ( ) {
+            System.arraycopy( mNet.mBiases, 0, mRed, 0, fHidden );
+            System.arraycopy( mNet.mBiases, 0, mBlack, 0, fHidden );
+        }
+        //-------------------------------------------------------------------
+        // piece p was placed on / lifted from square s.
+        void add ( int p, int s ) {
+            short  w[] = mNet.mWeights;
+            int    r = redFeature( p, s ) * fHidden, b = blackFeature( p, s ) * fHidden;
+            for (int i = 0; i < fHidden; i++)    mRed[ i ]   += w[ r + i ];
+            for (int i = 0; i < fHidden; i++)    mBlack[ i ] += w[ b + i ];
+        }
+        void remove ( int p, int s ) {
+            short  w[] = mNet.mWeights;
+            int    r = redFeature( p, s ) * fHidden, b = blackFeature( p, s ) * fHidden;
+            for (int i = 0; i < fHidden; i++)    mRed[ i ]   -= w[ r + i ];
+            for (int i = 0; i < fHidden; i++)    mBlack[ i ] -= w[ b + i ];
+        }
+        //-------------------------------------------------------------------
+        // the output of the network for the side to move.
+        int evaluate ( boolean blacksTurn ) {
+            short  us[] = blacksTurn ? mBlack : mRed, them[] = blacksTurn ? mRed : mBlack;
+            byte   out[] = mNet.mOutput;
+            int    sum = 0;
+            for (int i = 0; i < fHidden; i++)
+                sum += Math.min( Math.max( us[ i ], 0 ), fQA ) * out[ i ];
+            for (int i = 0; i < fHidden; i++)
+                sum += Math.min( Math.max( them[ i ], 0 ), fQA ) * out[ fHidden + i ];
+            return (int)((long)(sum + mNet.mOutputBias) * fScale / (fQA * fQB));
+        }
+    }
+    //-----------------------------------------------------------------------
+    private Nnue ( ) { }
+    //-----------------------------------------------------------------------
+    // the feature of piece p on square s, from red's side and from black's
+    // side (the colors swapped and the board turned upside down).
+    static int redFeature ( int p, int s ) {
+        return (p - 1) * fSquares + s;
+    }
+    static int blackFeature ( int p, int s ) {
+        int  swapped = p > Board.rElephant ? p - Board.rElephant : p + Board.rElephant;
+        int  mirrored = (Board.fRows - 1 - s / Board.fCols) * Board.fCols + s % Board.fCols;
+        return (swapped - 1) * fSquares + mirrored;
+    }
+    //-----------------------------------------------------------------------
+    // new accumulators for this network (set up by Board.setNetwork).
+    public Accumulator newAccumulator ( ) {
+        return new Accumulator( this );
+    }
+    //-----------------------------------------------------------------------
+    // a network that computes the piece-square evaluation of Evaluation (up
+    // to rounding): one hidden value per piece of the side to move holds
+    // that piece's value, one per piece of the other side holds the value
+    // of the other side's piece, and the output adds the first and
+    // subtracts the second.  the other hidden values are unused (0).
+    public static Nnue fromEvaluation ( ) {
+        Nnue  n = new Nnue();
+        for (int p = Board.rRat; p <= Board.bElephant; p++) {
+            //from red's side, red's pieces are ours (hidden 0..7), black's theirs (8..15)
+            int  unit = p - 1;
+            for (int s = 0; s < fSquares; s++) {
+                int  v = Math.abs( Evaluation.value( p, s ) );
+                n.mWeights[ redFeature( p, s ) * fHidden + unit ] = (short)Math.min( fQA, (v * fQA + fScale / 2) / fScale );
+            }
+        }
+        for (int i = 0; i < Board.bElephant; i++)
+            n.mOutput[ i ] = (byte)(i < Board.rElephant ? fQB : -fQB);
+        return n;
+    }
+    //-----------------------------------------------------------------------
+    // read a network from a file.
+    public static Nnue load ( File file ) throws IOException {
+        RandomAccessFile  f = new RandomAccessFile( file, "r" );
+        try {
+            FileChannel  ch = f.getChannel();
+            ByteBuffer  buf = ch.map( FileChannel.MapMode.READ_ONLY, 0, ch.size() );
+            if (buf.remaining() < 12 || buf.getLong() != fMagic || buf.getInt() != fHidden)
+                throw new IOException( file + ": not a network (with " + fHidden + " hidden values)" );
+            if (buf.remaining() != 2 * (fFeatures * fHidden + fHidden) + 2 * fHidden + 4)
+                throw new IOException( file + ": wrong size" );
+            Nnue  n = new Nnue();
+            buf.asShortBuffer().get( n.mWeights );
+            buf.position( buf.position() + 2 * n.mWeights.length );
+            buf.asShortBuffer().get( n.mBiases );
+            buf.position( buf.position() + 2 * fHidden );
+            buf.get( n.mOutput );
+            n.mOutputBias = buf.getInt();
+            return n;
+        } finally {
+            f.close();
+        }
+    }
+    //-----------------------------------------------------------------------
+    public void save ( File file ) throws IOException {
+        ByteBuffer  buf = ByteBuffer.allocate( 12 + 2 * (mWeights.length + fHidden) + 2 * fHidden + 4 );
+        buf.putLong( fMagic ).putInt( fHidden );
+        buf.asShortBuffer().put( mWeights );
+        buf.position( buf.position() + 2 * mWeights.length );
+        buf.asShortBuffer().put( mBiases );
+        buf.position( buf.position() + 2 * fHidden );
+        buf.put( mOutput ).putInt( mOutputBias );
+        buf.flip();
+        RandomAccessFile  f = new RandomAccessFile( file, "rw" );
+        try {
+            f.setLength( 0 );
+            FileChannel  ch = f.getChannel();
+            while (buf.hasRemaining())    ch.write( buf );
+        } finally {
+            f.close();
+        }
+    }
+    //-----------------------------------------------------------------------
+    // compare the network with the usual evaluation along random games, and
+    // time both, e.g., java Nnue [net.bin]
+    public static void main ( String[] args ) throws IOException {
+        Nnue  net = args.length > 0 ? load( new File( args[ 0 ] ) ) : fromEvaluation();
+        Board  b = new Board(), n = new Board();
+        n.setNetwork( net );
+        java.util.Random  rnd = new java.util.Random( 2016 );
+        int   moves[] = new int[ Board.fMaxMoves ];
+        long  diff = 0, worst = 0, positions = 0;
+        for (int i = 0; i < 100000; i++) {
+            int  count = b.generateMoves( b.mBlacksTurn ? Board.Color.Black : Board.Color.Red, moves );
+            if (count == 0 || b.isGameOver() || b.getUndoCount() > 200) {
+                b = new Board();
+                n = new Board();
+                n.setNetwork( net );
+                continue;
+            }
+            int  m = moves[ rnd.nextInt( count ) ];
+            b.makeMove( m );
+            n.makeMove( m );
+            int  d = Math.abs( Evaluation.evaluate( b ) - Evaluation.evaluate( n ) );
+            diff += d;
+            worst = Math.max( worst, d );
+            positions++;
+        }
+        System.out.println( positions + " positions: network vs. evaluation, mean difference "
+                + diff / Math.max( 1, positions ) + ", largest " + worst );
+        for (Nnue net2 : new Nnue[] { null, net }) {
+            SearchEngine  e = new SearchEngine();
+            e.setNetwork( net2 );
+            e.setDepthLimit( 9 );
+            e.search( new Board() );  //warm up
+            e.getTable().clear();
+            SearchEngine.Result  r = e.search( new Board() );
+            System.out.println( (net2 == null ? "evaluation: " : "network:    ") + r );
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/* file: Notation.java
+ *
+ * two ways to write down a position (the pieces and the side to move):
+ *
+ * text, in the style of chess's fen: the rows from top (row 0) to bottom,
+ * separated by '/', then a blank and the side to move ('b' or 'r').  in a
+ * row, a piece is a letter (lower case for red, upper case for black) and
+ * a run of empty squares is its length:
+ *   r rat, c cat, d dog, w wolf, p leopard (panther), t tiger, l lion,
+ *   e elephant
+ * e.g., the starting position is
+ *   l5t/1d3c1/r1p1w1e/7/7/7/E1W1P1R/1C3D1/T5L b
+ *
+ * binary, 16 bytes: the square (r * fCols + c) of each piece in 6 bits,
+ * or 63 if it has been captured, and 1 bit for black to move.  as two
+ * longs, the low long holds the red pieces (rRat in bits 0..5, rCat in
+ * bits 6..11, ...) and the high long the black pieces the same way, with
+ * black to move in bit 48.  as bytes, it is the high long and then the low
+ * long, big endian.
+ */
+import java.nio.ByteBuffer;
+
+public final class Notation {
+
+    public static final String  fStart = "l5t/1d3c1/r1p1w1e/7/7/7/E1W1P1R/1C3D1/T5L b";
+    public static final int     fBytes = 16;  //of the binary form
+
+    private static final String  fLetters = " rcdwptle";  //by rank
+    private static final int     fAbsent  = 63;
+    private static final long    fBlackToMove = 1L << 48;
+    //-----------------------------------------------------------------------
+    private Notation ( ) { }
+    //-----------------------------------------------------------------------
+    // the text form of b.
+    public static String toFen ( Board b ) {
+        StringBuilder  sb = new StringBuilder( 48 );
+        appendFen( b, sb );
+        return sb.toString();
+    }
+    //-----------------------------------------------------------------------
+    public static void appendFen ( Board b, StringBuilder sb ) {
+        for (int r = 0; r < Board.fRows; r++) {
+            if (r > 0)    sb.append( '/' );
+            int  empty = 0;
+            for (int c = 0; c < Board.fCols; c++) {
+                int  p = b.getPiece( r, c );
+                if (p == Board.rbNone) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0)    sb.append( (char)('0' + empty) );
+                empty = 0;
+                char  letter = fLetters.charAt( b.getRank( p ) );
+                sb.append( p > Board.rElephant ? Character.toUpperCase( letter ) : letter );
+            }
+            if (empty > 0)    sb.append( (char)('0' + empty) );
+        }
+        sb.append( b.mBlacksTurn ? " b" : " r" );
+    }
+    //-----------------------------------------------------------------------
+    // a new board with the position of the text form.
+    public static Board fromFen ( CharSequence fen ) {
+        Board  b = new Board();
+        setFen( b, fen );
+        return b;
+    }
+    //-----------------------------------------------------------------------
+    // set up the position of the text form on b.  throws an
+    // IllegalArgumentException (and leaves b in some position) if fen is
+    // not a valid position.
+    public static void setFen ( Board b, CharSequence fen ) {
+        b.clearPieces();
+        int  r = 0, c = 0, i = 0, n = fen.length();
+        for (; i < n; i++) {
+            char  ch = fen.charAt( i );
+            if (ch == ' ')    break;
+            if (ch == '/') {
+                if (c != Board.fCols)    throw bad( fen, "row " + r + " has " + c + " squares" );
+                r++;
+                c = 0;
+            } else if (ch >= '1' && ch <= '7') {
+                c += ch - '0';
+            } else {
+                int  rank = fLetters.indexOf( Character.toLowerCase( ch ) );
+                if (rank <= 0)    throw bad( fen, "unknown piece " + ch );
+                int  p = Character.isUpperCase( ch ) ? rank + Board.rElephant : rank;
+                if (!place( b, r, c, p ))    throw bad( fen, "cannot put " + ch + " on " + r + "," + c );
+                c++;
+            }
+            if (c > Board.fCols)    throw bad( fen, "row " + r + " is too long" );
+        }
+        if (r != Board.fRows - 1 || c != Board.fCols)    throw bad( fen, "not " + Board.fRows + " rows" );
+        while (i < n && fen.charAt( i ) == ' ')    i++;
+        if (i == n)    throw bad( fen, "no side to move" );
+        char  side = fen.charAt( i );
+        if (side != 'b' && side != 'r')    throw bad( fen, "unknown side to move " + side );
+        b.mBlacksTurn = side == 'b';
+    }
+    //-----------------------------------------------------------------------
+    // put piece p on (r,c) of b; false if it cannot be there (a square
+    // that is taken, water for any piece but a rat, or its own den).
+    private static boolean place ( Board b, int r, int c, int p ) {
+        int  t = b.getBoard( r, c );
+        return CaptureTable.canMove( p, Board.rbNone, t, t ) && b.setPiece( r, c, p );
+    }
+    //-----------------------------------------------------------------------
+    private static IllegalArgumentException bad ( CharSequence fen, String why ) {
+        return new IllegalArgumentException( "bad position \"" + fen + "\": " + why );
+    }
+    //-----------------------------------------------------------------------
+    // the low and high longs of the binary form of b.
+    public static long packLow ( Board b ) {
+        return pack( b, Board.rRat );
+    }
+    public static long packHigh ( Board b ) {
+        return pack( b, Board.bRat ) | (b.mBlacksTurn ? fBlackToMove : 0);
+    }
+    private static long pack ( Board b, int first ) {
+        long  v = 0;
+        for (int i = 0; i < 8; i++) {
+            int  s = b.mPieceSquare[ first + i ];
+            v |= (long)(s < 0 ? fAbsent : s) << (6 * i);
+        }
+        return v;
+    }
+    //-----------------------------------------------------------------------
+    // write the 16 bytes of the binary form of b.
+    public static void put ( ByteBuffer buf, Board b ) {
+        buf.putLong( packHigh( b ) ).putLong( packLow( b ) );
+    }
+    //-----------------------------------------------------------------------
+    // set up the position of a binary form on b.  throws an
+    // IllegalArgumentException if it is not a valid position.
+    public static void unpack ( Board b, long low, long high ) {
+        b.clearPieces();
+        unpack( b, low, Board.rRat );
+        unpack( b, high, Board.bRat );
+        b.mBlacksTurn = (high & fBlackToMove) != 0;
+    }
+    private static void unpack ( Board b, long v, int first ) {
+        for (int i = 0; i < 8; i++) {
+            int  s = (int)(v >>> (6 * i)) & 63;
+            if (s != fAbsent && !place( b, s / Board.fCols, s % Board.fCols, first + i ))
+                throw new IllegalArgumentException( "bad position: piece " + (first + i) + " cannot be on square " + s );
+        }
+    }
+    //-----------------------------------------------------------------------
+    // read 16 bytes of binary form and set up the position on b.
+    public static void get ( ByteBuffer buf, Board b ) {
+        long  high = buf.getLong();
+        unpack( b, buf.getLong(), high );
+    }
+    //-----------------------------------------------------------------------
+    // print the text form of the starting position (or of the args), and
+    // check that both forms give back the same position.
+    public static void main ( String[] args ) {
+        StringBuilder  fen = new StringBuilder();
+        for (String a : args)    fen.append( fen.length() > 0 ? " " : "" ).append( a );
+        Board  b = fen.length() > 0 ? fromFen( fen ) : new Board();
+        Board  t = fromFen( toFen( b ) );
+        Board  p = new Board();
+        unpack( p, packLow( b ), packHigh( b ) );
+        System.out.println( toFen( b ) );
+        System.out.printf( "%016x%016x%n", packHigh( b ), packLow( b ) );
+        System.out.println( "text " + (t.equals( b ) ? "ok" : "MISMATCH")
+                + ", binary " + (p.equals( b ) ? "ok" : "MISMATCH") );
+    }
+}
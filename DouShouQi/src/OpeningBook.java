@@ -0,0 +1,436 @@
+/* file: OpeningBook.java
+ *
+ * an opening book: for each position (by Board.getKey()) the moves that
+ * were played there, how often each should be chosen (its weight), and how
+ * the games continued from it (wins, draws, and losses for the side that
+ * played the move).
+ *
+ * the book is one sorted binary file that is mapped into memory and probed
+ * by binary search.  nothing is read or built on the heap when a book is
+ * opened, so a book of millions of positions costs only the few pages that
+ * the probes of a game actually touch.
+ *
+ * books are made by OpeningBook.Builder from the moves of finished games
+ * (e.g., self-play or tournament games, read from a GameArchive).
+ *
+ * file layout (big endian), 32-byte records:
+ *   record 0      magic "DSQBOOK1", # of entries (long), 16 unused bytes
+ *   record 1..n   entries sorted by key and then move:
+ *                   long key, int move (see Move), int weight,
+ *                   int wins, int draws, int losses, 4 unused bytes
+ *
+ * e.g., java OpeningBook book.bin  (lists the book moves of the starting position)
+ *       java OpeningBook book.bin games.dsq [maxPly 20] [minGames 2]
+ *         (builds the book from the games of an archive, then lists it)
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+public class OpeningBook {
+
+    public static final long  fMagic = 0x445351424f4f4b31L;  //"DSQBOOK1"
+
+    private static final int  fRecordBytes = 32;
+    private static final int  fChunkShift  = 30 - 5;  //log2(records per mapped chunk)
+
+    private final ByteBuffer  mChunks[];
+    private final long        mEntries;
+    //-----------------------------------------------------------------------
+    // map the book file (read only).  the file may be closed afterwards;
+    // the mapping stays valid.
+    public OpeningBook ( File file ) throws IOException {
+        RandomAccessFile  raf = new RandomAccessFile( file, "r" );
+        try {
+            FileChannel  ch = raf.getChannel();
+            long  size = ch.size();
+            if (size < fRecordBytes || size % fRecordBytes != 0)
+                throw new IOException( file + ": not an opening book" );
+            long  records = size / fRecordBytes;
+            int   chunks = (int)((records - 1 >>> fChunkShift) + 1);
+            mChunks = new ByteBuffer[ chunks ];
+            for (int i = 0; i < chunks; i++) {
+                long  at = (long)i << (fChunkShift + 5);
+                mChunks[ i ] = ch.map( FileChannel.MapMode.READ_ONLY, at, Math.min( size - at, 1L << 30 ) );
+            }
+            if (mChunks[ 0 ].getLong( 0 ) != fMagic || mChunks[ 0 ].getLong( 8 ) != records - 1)
+                throw new IOException( file + ": not an opening book" );
+            mEntries = records - 1;
+        } finally {
+            raf.close();
+        }
+    }
+    //-----------------------------------------------------------------------
+    // the number of (position, move) entries.
+    public long size ( ) {
+        return mEntries;
+    }
+    //-----------------------------------------------------------------------
+    // the fields of entry i (0 <= i < size()).
+    public long key    ( long i )  { return chunk( i ).getLong( offset( i ) );      }
+    public int  move   ( long i )  { return chunk( i ).getInt( offset( i ) + 8 );   }
+    public int  weight ( long i )  { return chunk( i ).getInt( offset( i ) + 12 );  }
+    public int  wins   ( long i )  { return chunk( i ).getInt( offset( i ) + 16 );  }
+    public int  draws  ( long i )  { return chunk( i ).getInt( offset( i ) + 20 );  }
+    public int  losses ( long i )  { return chunk( i ).getInt( offset( i ) + 24 );  }
+    //-----------------------------------------------------------------------
+    // returns the index of the first entry for key, or -1 if there is none.
+    public long find ( long key ) {
+        long  lo = 0, hi = mEntries;  //first entry >= key is in [lo, hi]
+        while (lo < hi) {
+            long  mid = (lo + hi) >>> 1;
+            if (key( mid ) < key)    lo = mid + 1;
+            else                     hi = mid;
+        }
+        return (lo < mEntries && key( lo ) == key) ? lo : -1;
+    }
+    //-----------------------------------------------------------------------
+    // put the legal book moves of b (and their weights, if weights is not
+    // null) into moves, and return how many there are.
+    public int getMoves ( Board b, int moves[], int weights[] ) {
+        long  i = find( b.getKey() );
+        if (i < 0)    return 0;
+        long  key = b.getKey();
+        int   n = 0;
+        for (; i < mEntries && key( i ) == key && n < moves.length; i++) {
+            int  m = move( i );
+            if (!b.isLegal( m ))    continue;  //a different position with the same key
+            moves[ n ] = m;
+            if (weights != null)    weights[ n ] = weight( i );
+            n++;
+        }
+        return n;
+    }
+    //-----------------------------------------------------------------------
+    // choose one of the book moves of b at random, in proportion to the
+    // weights.  returns Move.fNone if b is not in the book.
+    public int pick ( Board b, Random rnd ) {
+        int  moves[] = new int[ Board.fMaxMoves ], weights[] = new int[ Board.fMaxMoves ];
+        int  n = getMoves( b, moves, weights );
+        long  total = 0;
+        for (int i = 0; i < n; i++)    total += weights[ i ];
+        if (total <= 0)    return Move.fNone;
+        long  r = (long)(rnd.nextDouble() * total);
+        for (int i = 0; i < n; i++) {
+            r -= weights[ i ];
+            if (r < 0)    return moves[ i ];
+        }
+        return moves[ n - 1 ];
+    }
+    //-----------------------------------------------------------------------
+    private ByteBuffer chunk ( long i ) {
+        return mChunks[ (int)((i + 1) >>> fChunkShift) ];
+    }
+    private int offset ( long i ) {
+        return (int)((i + 1) & ((1L << fChunkShift) - 1)) * fRecordBytes;
+    }
+
+    //=======================================================================
+    // collects the positions and moves of games, then merges them and
+    // writes the book.  the moves are counted in a buffer of primitive
+    // arrays of a fixed size: one entry (key, move, and the # of wins,
+    // draws, and losses) per position and move.  when the buffer is full,
+    // it is sorted and the entries of the same position and move are
+    // merged in place; when that does not free at least half of it, the
+    // entries go to a sorted run in a temporary file instead.  write merges
+    // the runs, so the # of games is only limited by the disk.
+    public static class Builder {
+        private static final int  fLoss = 0, fDraw = 1, fWin = 2;  //for the mover
+        private static final int  fRunBytes = 24;  //long key, int move, wins, draws, losses
+
+        public static final int  fDefaultCapacity = 1 << 22;  //entries (96 MB)
+
+        private final int   mMaxPly;
+        private final File  mTempDir;  //for the runs (null for the default)
+        private final long  mKeys[];
+        private final int   mMoves[];
+        private final int   mCounts[];  //wins, draws, losses of entry i at 3 * i
+        private int         mCount = 0;
+        private long        mPositions = 0;
+        private long        mGames = 0;
+        private final java.util.List<File>  mRuns = new java.util.ArrayList<File>();
+        //-------------------------------------------------------------------
+        // only the first maxPly moves of each game go into the book.
+        public Builder ( int maxPly ) {
+            this( maxPly, fDefaultCapacity, null );
+        }
+        // (with a buffer of capacity entries, and runs in tempDir.)
+        public Builder ( int maxPly, int capacity, File tempDir ) {
+            mMaxPly  = maxPly;
+            mTempDir = tempDir;
+            capacity = Math.max( 16, capacity );
+            mKeys    = new long[ capacity ];
+            mMoves   = new int[ capacity ];
+            mCounts  = new int[ 3 * capacity ];
+        }
+        //-------------------------------------------------------------------
+        public long getGames ( )      { return mGames;      }
+        public long getPositions ( )  { return mPositions;  }
+        public int  getRuns ( )       { return mRuns.size();  }
+        //-------------------------------------------------------------------
+        // add a game from the starting position: the first length moves
+        // (see Move), and the winner (or null for a draw).  a game with an
+        // illegal move is only added up to that move.  returns the number of
+        // positions added.
+        public int addGame ( int moves[], int length, Board.Color winner ) throws IOException {
+            Board  b = new Board();
+            int    n = Math.min( length, mMaxPly );
+            int    added = 0;
+            for (; added < n; added++) {
+                int  m = moves[ added ];
+                if (!b.isLegal( m ))    break;
+                Board.Color  mover = b.mBlacksTurn ? Board.Color.Black : Board.Color.Red;
+                int  outcome = (winner == null || winner == Board.Color.None) ? fDraw
+                             : (winner == mover) ? fWin : fLoss;
+                if (mCount == mKeys.length)    makeRoom();
+                mKeys[ mCount ] = b.getKey();
+                mMoves[ mCount ] = m;
+                mCounts[ 3 * mCount ] = mCounts[ 3 * mCount + 1 ] = mCounts[ 3 * mCount + 2 ] = 0;
+                mCounts[ 3 * mCount + (outcome == fWin ? 0 : outcome == fDraw ? 1 : 2) ] = 1;
+                mCount++;
+                b.makeMove( m );
+            }
+            mPositions += added;
+            mGames++;
+            return added;
+        }
+        //-------------------------------------------------------------------
+        // add the games of an archive (those from the usual starting
+        // position), streaming it.  returns the number of games added.
+        public long addArchive ( File file ) throws IOException {
+            GameArchive.Reader  in = new GameArchive.Reader( file );
+            GameArchive.Record  g = new GameArchive.Record();
+            long  added = 0;
+            try {
+                while (in.next( g )) {
+                    if (g.mCustomStart)    continue;
+                    addGame( g.mMoves, g.mLength, g.mWinner );
+                    added++;
+                }
+            } finally {
+                in.close();
+            }
+            return added;
+        }
+        //-------------------------------------------------------------------
+        // the buffer is full: merge it, and write it to a run if that does
+        // not free half of it.
+        private void makeRoom ( ) throws IOException {
+            merge();
+            if (mCount > mKeys.length / 2)    spill();
+        }
+        //-------------------------------------------------------------------
+        // sort the buffer and merge the entries of the same position and
+        // move (adding up their counts).
+        private void merge ( ) {
+            sort( 0, mCount - 1 );
+            int  n = 0;
+            for (int i = 0; i < mCount; i++) {
+                if (n > 0 && mKeys[ n - 1 ] == mKeys[ i ] && mMoves[ n - 1 ] == mMoves[ i ]) {
+                    for (int k = 0; k < 3; k++)    mCounts[ 3 * (n - 1) + k ] += mCounts[ 3 * i + k ];
+                } else {
+                    mKeys[ n ]  = mKeys[ i ];
+                    mMoves[ n ] = mMoves[ i ];
+                    System.arraycopy( mCounts, 3 * i, mCounts, 3 * n, 3 );
+                    n++;
+                }
+            }
+            mCount = n;
+        }
+        //-------------------------------------------------------------------
+        // write the (merged) buffer to a new run, and empty it.
+        private void spill ( ) throws IOException {
+            File  f = File.createTempFile( "book", ".run", mTempDir );
+            f.deleteOnExit();
+            mRuns.add( f );
+            RandomAccessFile  raf = new RandomAccessFile( f, "rw" );
+            try {
+                FileChannel  ch = raf.getChannel();
+                ByteBuffer   buf = ByteBuffer.allocateDirect( fRunBytes << 12 );
+                for (int i = 0; i < mCount; i++) {
+                    if (!buf.hasRemaining())    flush( ch, buf );
+                    buf.putLong( mKeys[ i ] ).putInt( mMoves[ i ] )
+                       .putInt( mCounts[ 3 * i ] ).putInt( mCounts[ 3 * i + 1 ] ).putInt( mCounts[ 3 * i + 2 ] );
+                }
+                flush( ch, buf );
+            } finally {
+                raf.close();
+            }
+            mCount = 0;
+        }
+        //-------------------------------------------------------------------
+        // write the book: one entry for each move played at least minGames
+        // times in a position.  the weight of a move is its score (2 for a
+        // win, 1 for a draw) over all of its games.  the runs are merged
+        // (and deleted), so nothing can be added afterwards.  returns the
+        // number of entries written.
+        public long write ( File file, int minGames ) throws IOException {
+            merge();
+            if (!mRuns.isEmpty() && mCount > 0)    spill();
+            java.util.PriorityQueue<Run>  runs = new java.util.PriorityQueue<Run>();
+            RandomAccessFile  raf = new RandomAccessFile( file, "rw" );
+            try {
+                for (File f : mRuns) {
+                    Run  r = new Run( f );
+                    if (r.next())    runs.add( r );
+                    else             r.close();
+                }
+                raf.setLength( 0 );
+                FileChannel  ch = raf.getChannel();
+                ByteBuffer   buf = ByteBuffer.allocate( fRecordBytes << 11 );
+                buf.put( new byte[ fRecordBytes ] );  //the header is written last
+                long  entries = 0;
+                for (int i = 0; ; ) {
+                    //the next position and move, from the runs or the buffer
+                    long  key;
+                    int   move, wins, draws, losses;
+                    if (mRuns.isEmpty()) {
+                        if (i == mCount)    break;
+                        key  = mKeys[ i ];
+                        move = mMoves[ i ];
+                        wins = mCounts[ 3 * i ];    draws = mCounts[ 3 * i + 1 ];    losses = mCounts[ 3 * i + 2 ];
+                        i++;
+                    } else {
+                        Run  r = runs.peek();
+                        if (r == null)    break;
+                        key  = r.mKey;
+                        move = r.mMove;
+                        wins = draws = losses = 0;
+                        while ((r = runs.peek()) != null && r.mKey == key && r.mMove == move) {
+                            runs.poll();
+                            wins += r.mWins;    draws += r.mDraws;    losses += r.mLosses;
+                            if (r.next())    runs.add( r );
+                            else             r.close();
+                        }
+                    }
+                    if (wins + draws + losses >= minGames) {
+                        if (!buf.hasRemaining())    flush( ch, buf );
+                        buf.putLong( key ).putInt( move ).putInt( 2 * wins + draws )
+                           .putInt( wins ).putInt( draws ).putInt( losses ).putInt( 0 );
+                        entries++;
+                    }
+                }
+                flush( ch, buf );
+                buf.putLong( fMagic ).putLong( entries ).putLong( 0 ).putLong( 0 );
+                buf.flip();
+                ch.write( buf, 0 );
+                return entries;
+            } finally {
+                raf.close();
+                for (Run r : runs)    r.close();
+                for (File f : mRuns)  f.delete();
+                mRuns.clear();
+                mCount = 0;
+            }
+        }
+        //-------------------------------------------------------------------
+        private static void flush ( FileChannel ch, ByteBuffer buf ) throws IOException {
+            buf.flip();
+            while (buf.hasRemaining())    ch.write( buf );
+            buf.clear();
+        }
+        //-------------------------------------------------------------------
+        // sort entries lo..hi by key, then move.
+        private void sort ( int lo, int hi ) {
+            while (hi - lo > 16) {
+                int   mid = (lo + hi) >>> 1;
+                if (less( mid, lo ))    swap( mid, lo );
+                if (less( hi, lo ))     swap( hi, lo );
+                if (less( hi, mid ))    swap( hi, mid );
+                long  pk = mKeys[ mid ];
+                int   pm = mMoves[ mid ];
+                int   i = lo, j = hi;
+                while (i <= j) {
+                    while (mKeys[ i ] < pk || (mKeys[ i ] == pk && mMoves[ i ] < pm))    i++;
+                    while (mKeys[ j ] > pk || (mKeys[ j ] == pk && mMoves[ j ] > pm))    j--;
+                    if (i <= j)    swap( i++, j-- );
+                }
+                if (j - lo < hi - i) {  //recurse into the smaller part
+                    sort( lo, j );
+                    lo = i;
+                } else {
+                    sort( i, hi );
+                    hi = j;
+                }
+            }
+            for (int i = lo + 1; i <= hi; i++) {
+                for (int j = i; j > lo && less( j, j - 1 ); j--)
+                    swap( j, j - 1 );
+            }
+        }
+        private boolean less ( int a, int b ) {
+            return mKeys[ a ] < mKeys[ b ] || (mKeys[ a ] == mKeys[ b ] && mMoves[ a ] < mMoves[ b ]);
+        }
+        private void swap ( int a, int b ) {
+            long  k = mKeys[ a ];     mKeys[ a ] = mKeys[ b ];      mKeys[ b ] = k;
+            int   m = mMoves[ a ];    mMoves[ a ] = mMoves[ b ];    mMoves[ b ] = m;
+            for (int i = 0; i < 3; i++) {
+                int  c = mCounts[ 3 * a + i ];
+                mCounts[ 3 * a + i ] = mCounts[ 3 * b + i ];
+                mCounts[ 3 * b + i ] = c;
+            }
+        }
+
+        //===================================================================
+        // a run being merged, positioned at its current entry.
+        private static class Run implements Comparable<Run> {
+            final RandomAccessFile  mFile;
+            final FileChannel  mChannel;
+            final ByteBuffer   mBuf = ByteBuffer.allocateDirect( fRunBytes << 11 );
+            long  mKey;
+            int   mMove, mWins, mDraws, mLosses;
+
+            Run ( File f ) throws IOException {
+                mFile = new RandomAccessFile( f, "r" );
+                mChannel = mFile.getChannel();
+                mBuf.limit( 0 );
+            }
+            //---------------------------------------------------------------
+            // move to the next entry; false at the end of the run.
+            boolean next ( ) throws IOException {
+                if (mBuf.remaining() < fRunBytes) {
+                    mBuf.compact();
+                    while (mBuf.hasRemaining() && mChannel.read( mBuf ) > 0) { }
+                    mBuf.flip();
+                    if (mBuf.remaining() < fRunBytes)    return false;
+                }
+                mKey = mBuf.getLong();
+                mMove = mBuf.getInt();
+                mWins = mBuf.getInt();
+                mDraws = mBuf.getInt();
+                mLosses = mBuf.getInt();
+                return true;
+            }
+            //---------------------------------------------------------------
+            void close ( ) throws IOException {
+                mFile.close();
+            }
+            //---------------------------------------------------------------
+            public int compareTo ( Run r ) {
+                if (mKey != r.mKey)    return mKey < r.mKey ? -1 : 1;
+                return mMove < r.mMove ? -1 : mMove > r.mMove ? 1 : 0;
+            }
+        }
+    }
+    //-----------------------------------------------------------------------
+    public static void main ( String[] args ) throws IOException {
+        if (args.length > 1) {
+            Builder  builder = new Builder( args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 20 );
+            long  games = builder.addArchive( new File( args[ 1 ] ) );
+            long  entries = builder.write( new File( args[ 0 ] ), args.length > 3 ? Integer.parseInt( args[ 3 ] ) : 2 );
+            System.out.println( games + " games, " + builder.getPositions() + " positions, "
+                    + entries + " book entries" );
+        }
+        OpeningBook  book = new OpeningBook( new File( args.length > 0 ? args[ 0 ] : "book.bin" ) );
+        Board  b = new Board();
+        long   i = book.find( b.getKey() );
+        System.out.println( book.size() + " entries" );
+        for (; i >= 0 && i < book.size() && book.key( i ) == b.getKey(); i++) {
+            System.out.println( Move.toString( book.move( i ) ) + "  weight " + book.weight( i )
+                    + "  +" + book.wins( i ) + " =" + book.draws( i ) + " -" + book.losses( i ) );
+        }
+    }
+}
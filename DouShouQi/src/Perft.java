@@ -0,0 +1,167 @@
+/* file: Perft.java
+ *
+ * perft counts every sequence of legal moves of a given length (the leaves
+ * of the full game tree) from a position.  the counts are a correctness
+ * check for the move generator (they must match what Board.isValidMove
+ * allows, see slowPerft) and a raw measure of move generation speed.
+ *
+ * the root moves are split across a ForkJoinPool, each on its own copy of
+ * the board.  optionally, subtree counts are cached in a hash table keyed
+ * by position and depth, which makes deep counts much faster.  the cache
+ * is shared by all threads without locks: an entry is stored as
+ * (key ^ count, count) and is only used if the two xor back to the key.
+ *
+ * a position where one side has already won has no moves.
+ *
+ * e.g., java Perft 6 (depth) 4 (threads) 64 (cache MB) check
+ */
+import java.io.PrintStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class Perft {
+
+    private final ForkJoinPool  mPool;
+    private final long          mCacheKey[];    //(position key ^ depth) ^ count
+    private final long          mCacheCount[];
+    private final int           mCacheMask;
+    //-----------------------------------------------------------------------
+    // no cache; one thread per core.
+    public Perft ( ) {
+        this( Runtime.getRuntime().availableProcessors(), 0 );
+    }
+    //-----------------------------------------------------------------------
+    public Perft ( int threads, int cacheMb ) {
+        mPool = new ForkJoinPool( Math.max( 1, threads ) );
+        if (cacheMb > 0) {
+            int  entries = Integer.highestOneBit( (int)Math.min( (long)cacheMb << 16, 1 << 30 ) );
+            mCacheKey   = new long[ entries ];
+            mCacheCount = new long[ entries ];
+            mCacheMask  = entries - 1;
+        } else {
+            mCacheKey = mCacheCount = null;
+            mCacheMask = 0;
+        }
+    }
+    //-----------------------------------------------------------------------
+    // count the leaves of the game tree of the given depth.
+    public long perft ( Board b, int depth ) {
+        return divide( b, depth, null );
+    }
+    //-----------------------------------------------------------------------
+    // count the leaves below each root move in parallel, print each count
+    // (if out is not null), and return the total.
+    public long divide ( Board b, int depth, PrintStream out ) {
+        if (depth <= 0)    return 1;
+        int  moves[] = new int[ Board.fMaxMoves ];
+        int  n = generate( b, moves );
+        RootTask  tasks[] = new RootTask[ n ];
+        for (int i = 0; i < n; i++)
+            tasks[ i ] = new RootTask( b, moves[ i ], depth - 1 );
+        for (int i = 0; i < n; i++)
+            mPool.execute( tasks[ i ] );
+        long  total = 0;
+        for (int i = 0; i < n; i++) {
+            long  count = tasks[ i ].join();
+            if (out != null)    out.println( Move.toString( moves[ i ] ) + ": " + count );
+            total += count;
+        }
+        return total;
+    }
+    //-----------------------------------------------------------------------
+    private class RootTask extends RecursiveTask<Long> {
+        private static final long  serialVersionUID = 1L;
+        private final Board  mBoard;
+        private final int    mDepth;
+
+        RootTask ( Board b, int move, int depth ) {
+            mBoard = new Board( b );
+            mBoard.makeMove( move );
+            mDepth = depth;
+        }
+
+        protected Long compute ( ) {
+            return count( mBoard, mDepth, new int[ mDepth + 1 ][ Board.fMaxMoves ] );
+        }
+    }
+    //-----------------------------------------------------------------------
+    // the sequential count below b, with a move buffer per remaining depth.
+    private long count ( Board b, int depth, int moves[][] ) {
+        if (depth == 0)    return 1;
+        long  k = 0;
+        int   slot = 0;
+        if (mCacheKey != null && depth > 1) {
+            k = b.getKey() ^ (depth * 0x9E3779B97F4A7C15L);
+            slot = (int)k & mCacheMask;
+            long  c = mCacheCount[ slot ];
+            if ((mCacheKey[ slot ] ^ c) == k)    return c;
+        }
+        int  n = generate( b, moves[ depth ] );
+        long  total;
+        if (depth == 1) {
+            total = n;  //no need to make the last moves
+        } else {
+            total = 0;
+            for (int i = 0; i < n; i++) {
+                b.makeMove( moves[ depth ][ i ] );
+                total += count( b, depth - 1, moves );
+                b.unmakeMove();
+            }
+        }
+        if (mCacheKey != null && depth > 1) {
+            mCacheKey[ slot ]   = k ^ total;
+            mCacheCount[ slot ] = total;
+        }
+        return total;
+    }
+    //-----------------------------------------------------------------------
+    private static int generate ( Board b, int moves[] ) {
+        if (SearchEngine.isLost( b ))    return 0;
+        return b.generateMoves( b.mBlacksTurn ? Board.Color.Black : Board.Color.Red, moves );
+    }
+    //-----------------------------------------------------------------------
+    // the same count using only isValidMove (every pair of squares) and
+    // copies of the board.  this is very slow and is meant as the oracle
+    // that the fast counts are checked against.
+    public static long slowPerft ( Board b, int depth ) {
+        if (depth == 0)    return 1;
+        if (SearchEngine.isLost( b ))    return 0;
+        Board.Color  side = b.mBlacksTurn ? Board.Color.Black : Board.Color.Red;
+        long  total = 0;
+        for (int r = 0; r < Board.fRows; r++) {
+            for (int c = 0; c < Board.fCols; c++) {
+                if (b.getColor( r, c ) != side)    continue;
+                for (int r2 = 0; r2 < Board.fRows; r2++) {
+                    for (int c2 = 0; c2 < Board.fCols; c2++) {
+                        if (!b.isValidMove( r, c, r2, c2 ))    continue;
+                        Board  next = new Board( b );
+                        next.doMove( r, c, r2, c2 );
+                        next.mBlacksTurn = !b.mBlacksTurn;
+                        total += slowPerft( next, depth - 1 );
+                    }
+                }
+            }
+        }
+        return total;
+    }
+    //-----------------------------------------------------------------------
+    public static void main ( String[] args ) {
+        int      depth   = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 5;
+        int      threads = args.length > 1 ? Integer.parseInt( args[ 1 ] )
+                                           : Runtime.getRuntime().availableProcessors();
+        int      cacheMb = args.length > 2 ? Integer.parseInt( args[ 2 ] ) : 0;
+        boolean  check   = args.length > 3 && args[ 3 ].equals( "check" );
+
+        Board  b = new Board();
+        Perft  p = new Perft( threads, cacheMb );
+        long   start = System.nanoTime();
+        long   total = p.divide( b, depth, System.out );
+        long   ms = Math.max( 1, (System.nanoTime() - start) / 1000000 );
+        System.out.println( "perft " + depth + " = " + total + " in " + ms + " ms ("
+                + total * 1000 / ms + " leaves/s)" );
+        if (check) {
+            long  slow = slowPerft( b, depth );
+            System.out.println( "isValidMove oracle = " + slow + (slow == total ? " (ok)" : " (MISMATCH)") );
+        }
+    }
+}
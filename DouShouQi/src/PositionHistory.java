@@ -0,0 +1,154 @@
+/* file: PositionHistory.java
+ *
+ * the positions of a game (and of the line being searched), by
+ * Board.getKey(), to recognize repetitions.  pieces can shuffle back and
+ * forth forever, so without this neither a game nor a search would end.
+ *
+ * the keys are kept in a ring buffer.  a capture can never be undone, so
+ * no position before the last capture can come back; only the keys since
+ * then (the reversible window) are compared.  a small table counts the
+ * keys in the buffer by their low bits, so a position that has not been
+ * seen before (nearly always) is recognized without looking at the buffer
+ * at all.
+ *
+ * the rules (see Rule, setRepetitions, and setReversibleLimit): how many
+ * times a position may occur before the game is over, and whether that is
+ * a draw or a loss for the player who repeated it; and, optionally, how
+ * many plies without a capture end the game in a draw.
+ */
+public class PositionHistory {
+
+    //what a repetition means
+    public static enum Rule { Draw, RepeaterLoses };
+
+    public static final int  fDefaultCapacity = 1024;  //plies
+
+    private static final int  fFilterSize = 1 << 12;  //# of counters (a power of 2)
+
+    private final long  mKeys[];
+    private final int   mWindow[];  //where the reversible window of each entry starts
+    private final int   mMask;
+    private final int   mFilter[] = new int[ fFilterSize ];
+    private int   mCount = 0;  //# of keys pushed (and not popped), mKeys[ (mCount - 1) & mMask ] is the latest
+    private int   mFirst = 0;  //the oldest entry still in the buffer
+    private Rule  mRule = Rule.Draw;
+    private int   mRepetitions = 3;
+    private int   mReversibleLimit = 0;  //0 for none
+    //-----------------------------------------------------------------------
+    public PositionHistory ( ) {
+        this( fDefaultCapacity );
+    }
+    //-----------------------------------------------------------------------
+    // keep (at least) the last capacity positions.
+    public PositionHistory ( int capacity ) {
+        int  n = Integer.highestOneBit( Math.max( 2, capacity - 1 ) ) << 1;
+        mKeys   = new long[ n ];
+        mWindow = new int[ n ];
+        mMask   = n - 1;
+    }
+    //-----------------------------------------------------------------------
+    // a copy (e.g., for each search thread).
+    public PositionHistory ( PositionHistory h ) {
+        mKeys   = h.mKeys.clone();
+        mWindow = h.mWindow.clone();
+        mMask   = h.mMask;
+        System.arraycopy( h.mFilter, 0, mFilter, 0, fFilterSize );
+        mCount  = h.mCount;
+        mFirst  = h.mFirst;
+        mRule   = h.mRule;
+        mRepetitions    = h.mRepetitions;
+        mReversibleLimit = h.mReversibleLimit;
+    }
+    //-----------------------------------------------------------------------
+    public Rule getRule ( )                { return mRule;  }
+    public void setRule ( Rule rule )      { mRule = rule;  }
+    public int getRepetitions ( )          { return mRepetitions;  }
+    public int getReversibleLimit ( )      { return mReversibleLimit;  }
+    //-----------------------------------------------------------------------
+    // the n-th occurrence of a position ends the game (at least 2).
+    public void setRepetitions ( int n ) {
+        mRepetitions = Math.max( 2, n );
+    }
+    //-----------------------------------------------------------------------
+    // a game is drawn after this many plies in a row without a capture (0
+    // for no limit).
+    public void setReversibleLimit ( int plies ) {
+        mReversibleLimit = Math.max( 0, plies );
+    }
+    //-----------------------------------------------------------------------
+    // forget all positions and start over with b.
+    public void clear ( Board b ) {
+        java.util.Arrays.fill( mFilter, 0 );
+        mCount = mFirst = 0;
+        push( b.getKey(), true );
+    }
+    //-----------------------------------------------------------------------
+    // the # of positions kept.
+    public int size ( ) {
+        return mCount - mFirst;
+    }
+    //-----------------------------------------------------------------------
+    // add the position reached by a move (irreversible if it captured).
+    public void push ( long key, boolean irreversible ) {
+        if (mCount - mFirst == mKeys.length) {  //full: drop the oldest
+            mFilter[ (int)mKeys[ mFirst & mMask ] & (fFilterSize - 1) ]--;
+            mFirst++;
+        }
+        int  i = mCount & mMask;
+        mWindow[ i ] = (irreversible || mCount == mFirst) ? mCount : mWindow[ (mCount - 1) & mMask ];
+        mKeys[ i ] = key;
+        mFilter[ (int)key & (fFilterSize - 1) ]++;
+        mCount++;
+    }
+    //-----------------------------------------------------------------------
+    // add the position of b after move m.
+    public void push ( Board b, int m ) {
+        push( b.getKey(), Move.isCapture( m ) );
+    }
+    //-----------------------------------------------------------------------
+    // remove the latest position (when its move is taken back).  the one
+    // before it must still be kept (see size()), e.g., a search may go at
+    // most capacity - 1 plies beyond the root.
+    public void pop ( ) {
+        mCount--;
+        mFilter[ (int)mKeys[ mCount & mMask ] & (fFilterSize - 1) ]--;
+    }
+    //-----------------------------------------------------------------------
+    // the # of plies since the last capture (or the start).
+    public int reversible ( ) {
+        return (mCount - 1) - Math.max( mFirst, mWindow[ (mCount - 1) & mMask ] );
+    }
+    //-----------------------------------------------------------------------
+    // how often the latest position has occurred (counting itself), but
+    // only up to max (so the search need not look further back than the
+    // count it cares about).
+    public int occurrences ( int max ) {
+        int   last = mCount - 1;
+        long  key = mKeys[ last & mMask ];
+        int   n = 1;
+        if (mFilter[ (int)key & (fFilterSize - 1) ] == 1)    return n;  //only itself
+        int  first = Math.max( mFirst, mWindow[ last & mMask ] );
+        for (int i = last - 2; i >= first && n < max; i -= 2) {  //the same side to move
+            if (mKeys[ i & mMask ] == key)    n++;
+        }
+        return n;
+    }
+    //-----------------------------------------------------------------------
+    // true if there have been too many plies without a capture.
+    public boolean isReversibleLimit ( ) {
+        return mReversibleLimit > 0 && reversible() >= mReversibleLimit;
+    }
+    //-----------------------------------------------------------------------
+    // true if the latest position ends the game by the rules.
+    public boolean isOver ( ) {
+        return occurrences( mRepetitions ) >= mRepetitions || isReversibleLimit();
+    }
+    //-----------------------------------------------------------------------
+    // when isOver(): the winner (or null for a draw).  the player who made
+    // the last move repeated the position, so with Rule.RepeaterLoses the
+    // side to move in b wins.
+    public Board.Color winner ( Board b ) {
+        if (mRule == Rule.Draw || occurrences( mRepetitions ) < mRepetitions)    return null;
+        return b.mBlacksTurn ? Board.Color.Black : Board.Color.Red;
+    }
+}
@@ -0,0 +1,526 @@
+/* file: SearchEngine.java
+ *
+ * a computer player for Board.  iterative deepening principal variation
+ * (alpha-beta) search, followed by a quiescence search over captures and
+ * den entries.  the search runs on its own copy of the position using
+ * makeMove/unmakeMove, and can be limited by depth, nodes, and time.
+ * results are kept in a TranspositionTable, which survives from one search
+ * to the next (and may be shared between engines).
+ *
+ * with more than one thread ("lazy smp"), every thread searches its own
+ * copy of the root, and the threads only share the transposition table.
+ * half of the helper threads start one iteration deeper so the threads
+ * spread over different depths and fill the table for one another.  the
+ * result is taken from the thread that completed the deepest iteration.
+ *
+ * with an OpeningBook, a position that is in the book is answered from the
+ * book without searching.  with a Tablebase, positions with few pieces are
+ * scored exactly by the tablebase instead of being searched.
+ *
+ * given the PositionHistory of the game, a position of the search that
+ * repeats an earlier one (of the game or of the line searched) is scored
+ * by the repetition rule of the history (a draw, or a loss for the side
+ * that repeated it) instead of being searched again.
+ *
+ * scores are from the point of view of the side to move.  a won position
+ * scores fWin - ply (so shorter wins are preferred).
+ */
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SearchEngine {
+
+    public static final int  fMaxDepth = 64;     //also the deepest ply searched
+    public static final int  fInfinity = 32000;
+    public static final int  fWin      = 31000;  //score of a win at the root
+    public static final int  fHashMb   = 16;     //default transposition table size
+    //-----------------------------------------------------------------------
+    // the outcome of a search.
+    public static class Result {
+        public int   move  = Move.fNone;  //best move (or Move.fNone if there is none)
+        public int   score = 0;           //for the side to move
+        public int   depth = 0;           //deepest completed iteration
+        public long  nodes = 0;
+        public long  time  = 0;           //milliseconds
+        public int   pv[]  = new int[ 0 ];  //principal variation (starts with move)
+
+        public long nps ( ) {
+            return time > 0 ? nodes * 1000 / time : nodes;
+        }
+
+        public String toString ( ) {
+            StringBuilder  sb = new StringBuilder();
+            sb.append( "depth " ).append( depth ).append( " score " ).append( score )
+              .append( " nodes " ).append( nodes ).append( " time " ).append( time )
+              .append( " nps " ).append( nps() ).append( " pv" );
+            for (int m : pv)    sb.append( ' ' ).append( Move.toString( m ) );
+            return sb.toString();
+        }
+    }
+    //-----------------------------------------------------------------------
+    private int          mDepthLimit = fMaxDepth;
+    private long         mNodeLimit  = Long.MAX_VALUE;
+    private long         mTimeLimit  = Long.MAX_VALUE;  //milliseconds
+    private PrintStream  mOut        = null;  //progress after each iteration
+    private TranspositionTable  mTable;
+    private int          mThreads    = 1;
+    private ExecutorService  mPool   = null;  //runs the helper threads
+    private OpeningBook  mBook       = null;
+    private Tablebase    mTablebase  = null;
+    private PositionHistory  mPositions = null;  //of the game, up to the root
+    private Nnue         mNetwork    = null;  //evaluates instead of Evaluation's tables
+    private final Random  mRandom    = new Random();  //to choose among book moves
+    private Worker       mScorer     = null;  //for score(), kept from call to call
+
+    private final AtomicLong  mTotalNodes = new AtomicLong();  //of all threads
+    private long              mStart      = 0;
+
+    private volatile boolean  mStop     = false;
+    private volatile long     mDeadline = Long.MAX_VALUE;
+    //the # of searches started so far, and a deadline set for a search that
+    // has not started yet (see setDeadline)
+    private long  mSearches        = 0;
+    private long  mPendingSearch   = 0;
+    private long  mPendingDeadline = 0;
+    //-----------------------------------------------------------------------
+    public SearchEngine ( ) {
+        this( new TranspositionTable( fHashMb ) );
+    }
+    public SearchEngine ( TranspositionTable table ) {
+        mTable = table;
+    }
+    //-----------------------------------------------------------------------
+    public TranspositionTable getTable ( )        { return mTable;   }
+    public void setTable ( TranspositionTable t ) { mTable = t;      }
+    public OpeningBook getBook ( )                { return mBook;    }
+    public void setBook ( OpeningBook book )      { mBook = book;    }  //null for none
+    public Tablebase getTablebase ( )             { return mTablebase;  }
+    public void setTablebase ( Tablebase tb )     { mTablebase = tb;    }  //null for none
+    //-----------------------------------------------------------------------
+    // the positions of the game so far, the latest being the position that
+    // is searched next (or null for none).  the history is copied by each
+    // search, not changed, and needs room for fMaxDepth more plies.
+    public PositionHistory getPositions ( )           { return mPositions;  }
+    public void setPositions ( PositionHistory h )    { mPositions = h;     }
+    //-----------------------------------------------------------------------
+    // evaluate with a network (or null for the piece-square tables).
+    public Nnue getNetwork ( )                        { return mNetwork;  }
+    public void setNetwork ( Nnue net )               { mNetwork = net;   }
+    //-----------------------------------------------------------------------
+    public void setDepthLimit ( int depth ) {
+        mDepthLimit = Math.max( 1, Math.min( depth, fMaxDepth ) );
+    }
+    public void setNodeLimit ( long nodes )   { mNodeLimit = nodes;   }
+    public void setTimeLimit ( long millis )  { mTimeLimit = millis;  }
+    public void setOutput ( PrintStream out ) { mOut = out;           }
+    //-----------------------------------------------------------------------
+    // the number of threads used by each search (default 1).
+    public void setThreads ( int threads ) {
+        threads = Math.max( 1, threads );
+        if (threads == mThreads)    return;
+        if (mPool != null)    mPool.shutdown();
+        mPool = null;
+        mThreads = threads;
+        if (threads > 1) {
+            mPool = Executors.newFixedThreadPool( threads - 1, new ThreadFactory() {
+                public Thread newThread ( Runnable r ) {
+                    Thread  t = new Thread( r, "search helper" );
+                    t.setDaemon( true );
+                    return t;
+                }
+            } );
+        }
+    }
+    public int getThreads ( ) {
+        return mThreads;
+    }
+    //-----------------------------------------------------------------------
+    // ask a running search (from another thread) to return as soon as
+    // possible with the result of the deepest completed iteration.
+    public void stop ( ) {
+        mStop = true;
+    }
+    //-----------------------------------------------------------------------
+    // the # of searches started so far (the next search is # count + 1).
+    public synchronized long getSearchCount ( ) {
+        return mSearches;
+    }
+    //-----------------------------------------------------------------------
+    // set the time (as System.currentTimeMillis()) at which search # n
+    // returns, from another thread, whether or not that search has started
+    // yet.  e.g., a search on the position that the opponent is expected to
+    // reach runs without a time limit until the opponent moves, and is then
+    // either given a deadline, or stopped (with a deadline of 0).
+    public synchronized void setDeadline ( long n, long time ) {
+        if (n == mSearches) {
+            mDeadline = time;
+        } else if (n > mSearches) {
+            mPendingSearch   = n;
+            mPendingDeadline = time;
+        }
+    }
+    //-----------------------------------------------------------------------
+    // search the given position (which is not changed) for the side to move.
+    public Result search ( final Board root ) {
+        synchronized (this) {
+            mSearches++;
+            mStart = System.currentTimeMillis();
+            mStop = false;
+            mDeadline = (mTimeLimit == Long.MAX_VALUE) ? Long.MAX_VALUE : mStart + mTimeLimit;
+            if (mPendingSearch == mSearches)    mDeadline = Math.min( mDeadline, mPendingDeadline );
+        }
+        mTable.newSearch();
+        mTotalNodes.set( 0 );
+
+        if (mBook != null) {
+            int  m = mBook.pick( root, mRandom );
+            if (m != Move.fNone) {
+                Result  result = new Result();
+                result.move = m;
+                result.pv   = new int[] { m };
+                result.time = System.currentTimeMillis() - mStart;
+                if (mOut != null)    mOut.println( "book " + Move.toString( m ) );
+                return result;
+            }
+        }
+
+        Worker  workers[] = new Worker[ mThreads ];
+        for (int i = 0; i < mThreads; i++)
+            workers[ i ] = new Worker( root, i );
+        Future<?>  helpers[] = new Future<?>[ mThreads ];
+        for (int i = 1; i < mThreads; i++)
+            helpers[ i ] = mPool.submit( workers[ i ] );
+
+        workers[ 0 ].run();
+        mStop = true;  //the main thread is done, so are the helpers
+        for (int i = 1; i < mThreads; i++) {
+            try {
+                helpers[ i ].get();
+            } catch (Exception e) {
+                throw new IllegalStateException( "search helper failed", e );
+            }
+        }
+
+        Worker  best = workers[ 0 ];
+        long    nodes = 0;
+        for (Worker w : workers) {
+            if (w.mDepth > best.mDepth)    best = w;
+            nodes += w.mNodes;
+        }
+        Result  result = best.result();
+        result.nodes = nodes;
+        result.time  = System.currentTimeMillis() - mStart;
+        return result;
+    }
+    //-----------------------------------------------------------------------
+    // the score of b (for the side to move) by a search of exactly the given
+    // depth, on the calling thread.  unlike search(), b itself is searched
+    // (and left as it was), without the book, iterative deepening, or helper
+    // threads, and nothing is allocated once the same board has been scored
+    // before.  for scoring many positions (see BatchEvaluator), with one
+    // engine and one board per thread.  b must be evaluated like the engine
+    // (see setNetwork and Board.setNetwork); it is not changed to match.
+    public int score ( Board b, int depth ) {
+        if (b.getNetwork() != mNetwork)
+            throw new IllegalArgumentException( "the board and the engine evaluate with different networks" );
+        if (mScorer == null || mScorer.mBoard != b)
+            mScorer = new Worker( 0, b );
+        mStop = false;
+        mDeadline = Long.MAX_VALUE;
+        mTotalNodes.set( 0 );
+        mScorer.mAborted = false;
+        mScorer.mPvLength[ 0 ] = 0;  //no principal variation to try first
+        mScorer.mPositions.clear( b );
+        return mScorer.iterate( Math.max( 1, Math.min( depth, fMaxDepth ) ) );
+    }
+    //-----------------------------------------------------------------------
+    // true if the side to move has already lost (an opponent is in its den,
+    // or it has no pieces left).
+    static boolean isLost ( Board b ) {
+        return b.mBlacksTurn ? b.isRedWinner() : b.isBlackWinner();
+    }
+    //-----------------------------------------------------------------------
+    // true if m moves a piece into the opponent's den.
+    static boolean isDenEntry ( int m ) {
+        int  to = Move.to( m );
+        return Move.piece( m ) <= Board.rElephant ? to == Board.fBDenSquare : to == Board.fRDenSquare;
+    }
+    //-----------------------------------------------------------------------
+    // won/lost scores are stored relative to the node (not the root) so
+    // that they stay correct when the position is reached at another ply.
+    static int toTable ( int score, int ply ) {
+        if (score >= fWin - 2 * fMaxDepth)     return score + ply;
+        if (score <= -fWin + 2 * fMaxDepth)    return score - ply;
+        return score;
+    }
+    static int fromTable ( int score, int ply ) {
+        if (score >= fWin - 2 * fMaxDepth)     return score - ply;
+        if (score <= -fWin + 2 * fMaxDepth)    return score + ply;
+        return score;
+    }
+    //-----------------------------------------------------------------------
+    // a copy of root that evaluates like this engine (see setNetwork).
+    private Board copy ( Board root ) {
+        Board  b = new Board( root );
+        if (b.getNetwork() != mNetwork)    b.setNetwork( mNetwork );
+        return b;
+    }
+    //-----------------------------------------------------------------------
+    // the state of one search over one board.
+    private class Worker implements Runnable {
+        final int    mId;     //0 is the main thread
+        final Board  mBoard;
+        final MovePicker.History  mHistory = new MovePicker.History();
+        final MovePicker  mPickers[] = new MovePicker[ fMaxDepth + 1 ];
+        final PositionHistory  mPositions;  //of the game and the current line
+        final int    mPv[][]      = new int[ fMaxDepth + 1 ][ fMaxDepth + 1 ];
+        final int    mPvLength[]  = new int[ fMaxDepth + 1 ];
+        final int    mPrevPv[]    = new int[ fMaxDepth + 1 ];  //from the last iteration
+        int          mPrevPvLength = 0;
+        long         mNodes       = 0;
+        boolean      mAborted     = false;
+        //the deepest completed iteration
+        int          mDepth       = 0;
+        int          mScore       = 0;
+        int          mBestPv[]    = new int[ 0 ];
+
+        Worker ( Board root, int id ) {
+            this( id, copy( root ) );
+        }
+        // (searching board itself, which must evaluate with mNetwork)
+        Worker ( int id, Board board ) {
+            mId = id;
+            mBoard = board;
+            PositionHistory  h = SearchEngine.this.mPositions;
+            if (h != null && h.size() > 0) {
+                mPositions = new PositionHistory( h );
+            } else {
+                mPositions = new PositionHistory( fMaxDepth + 1 );
+                mPositions.clear( board );
+            }
+            for (int i = 0; i <= fMaxDepth; i++)
+                mPickers[ i ] = new MovePicker( mHistory );
+        }
+        //-------------------------------------------------------------------
+        // iterative deepening.  odd numbered helpers start one deeper.
+        public void run ( ) {
+            for (int depth = 1 + (mId & 1); depth <= mDepthLimit; depth++) {
+                int  score = iterate( depth );
+                if (mAborted) {  //keep the last complete iteration
+                    //but rather than no move at all, the main thread keeps
+                    // what it found of its first one (still at depth 0, so
+                    // any completed iteration of a helper is taken instead)
+                    if (mId == 0 && mDepth == 0) {
+                        mScore  = score;
+                        mBestPv = principalVariation();
+                    }
+                    break;
+                }
+                mDepth  = depth;
+                mScore  = score;
+                mBestPv = principalVariation();
+                if (mId == 0 && mOut != null) {
+                    Result  r = result();
+                    r.nodes = mTotalNodes.get() + (mNodes & 1023);
+                    mOut.println( r );
+                }
+                if (mBestPv.length == 0)                    break;
+                if (Math.abs( score ) >= fWin - fMaxDepth)  break;  //forced result found
+            }
+        }
+        //-------------------------------------------------------------------
+        Result result ( ) {
+            Result  r = new Result();
+            r.depth = mDepth;
+            r.score = mScore;
+            r.pv    = mBestPv;
+            r.move  = mBestPv.length > 0 ? mBestPv[ 0 ] : Move.fNone;
+            r.nodes = mNodes;
+            r.time  = System.currentTimeMillis() - mStart;
+            return r;
+        }
+        //-------------------------------------------------------------------
+        // search to the given depth, trying the last principal variation first.
+        int iterate ( int depth ) {
+            mPrevPvLength = mPvLength[ 0 ];
+            System.arraycopy( mPv[ 0 ], 0, mPrevPv, 0, mPrevPvLength );
+            return search( depth, -fInfinity, fInfinity, 0 );
+        }
+        //-------------------------------------------------------------------
+        int[] principalVariation ( ) {
+            return java.util.Arrays.copyOf( mPv[ 0 ], mPvLength[ 0 ] );
+        }
+        //-------------------------------------------------------------------
+        private boolean checkLimits ( ) {
+            if ((mNodes & 1023) == 0) {
+                long  total = mTotalNodes.addAndGet( 1024 );
+                if (total >= mNodeLimit || System.currentTimeMillis() >= mDeadline)
+                    mStop = true;
+                if (mStop)
+                    mAborted = true;
+            }
+            return mAborted;
+        }
+        //-------------------------------------------------------------------
+        private Board.Color sideToMove ( ) {
+            return mBoard.mBlacksTurn ? Board.Color.Black : Board.Color.Red;
+        }
+        //-------------------------------------------------------------------
+        int search ( int depth, int alpha, int beta, int ply ) {
+            mPvLength[ ply ] = ply;
+            if (isLost( mBoard ))    return -fWin + ply;
+            if (ply > 0) {
+                if (mPositions.occurrences( 2 ) > 1)  //repeated by the side that just moved
+                    return mPositions.getRule() == PositionHistory.Rule.Draw ? 0 : fWin - ply;
+                if (mPositions.isReversibleLimit())    return 0;
+            }
+            if (ply > 0 && mTablebase != null
+                    && mBoard.countRed() + mBoard.countBlack() <= Tablebase.fMaxPieces) {
+                int  score = mTablebase.probe( mBoard );
+                if (score != Tablebase.fMissing)
+                    return score > 0 ? score - ply : score < 0 ? score + ply : 0;
+            }
+            if (depth <= 0 || ply >= fMaxDepth)    return quiesce( alpha, beta, ply );
+            mNodes++;
+            if (checkLimits())    return 0;
+
+            long  key = mBoard.getKey();
+            long  entry = mTable.probe( key );
+            int   first = ply < mPrevPvLength ? mPrevPv[ ply ] : Move.fNone;
+            if (entry != 0) {
+                first = TranspositionTable.move( entry );
+                //only cut off outside of the principal variation
+                if (ply > 0 && beta - alpha == 1 && TranspositionTable.depth( entry ) >= depth) {
+                    int  score = fromTable( TranspositionTable.score( entry ), ply );
+                    int  bound = TranspositionTable.bound( entry );
+                    if (bound == TranspositionTable.fExact
+                            || (bound == TranspositionTable.fLower && score >= beta)
+                            || (bound == TranspositionTable.fUpper && score <= alpha))
+                        return score;
+                }
+            }
+
+            MovePicker  picker = mPickers[ ply ];
+            picker.init( mBoard, first, ply, false );
+
+            int  alpha0 = alpha;
+            int  best = -fInfinity, bestMove = Move.fNone;
+            int  i = 0;
+            for (int m; (m = picker.next()) != Move.fNone; i++) {
+                mBoard.makeMove( m );
+                mPositions.push( mBoard, m );
+                int  score;
+                if (i == 0) {
+                    score = -search( depth - 1, -beta, -alpha, ply + 1 );
+                } else {
+                    score = -search( depth - 1, -alpha - 1, -alpha, ply + 1 );
+                    if (score > alpha && score < beta)
+                        score = -search( depth - 1, -beta, -alpha, ply + 1 );
+                }
+                mPositions.pop();
+                mBoard.unmakeMove();
+                if (mAborted)    return 0;
+
+                if (score > best) {
+                    best = score;
+                    bestMove = m;
+                    if (score > alpha) {
+                        alpha = score;
+                        updatePv( ply, m );
+                        if (alpha >= beta) {
+                            if (!MovePicker.isTactical( m ))    mHistory.cutoff( picker, m, ply, depth );
+                            break;
+                        }
+                    }
+                }
+            }
+            if (bestMove == Move.fNone)    return -fWin + ply;  //no legal move loses
+            int  bound = best >= beta ? TranspositionTable.fLower
+                       : best > alpha0 ? TranspositionTable.fExact : TranspositionTable.fUpper;
+            mTable.store( key, bestMove, toTable( best, ply ), depth, bound );
+            return best;
+        }
+        //-------------------------------------------------------------------
+        // search only captures and den entries until the position is quiet.
+        int quiesce ( int alpha, int beta, int ply ) {
+            mPvLength[ ply ] = ply;
+            mNodes++;
+            if (checkLimits())    return 0;
+            if (isLost( mBoard ))    return -fWin + ply;  //a den entry or the last capture
+
+            MovePicker  picker = mPickers[ ply ];
+            picker.init( mBoard, Move.fNone, ply, true );
+            if (picker.legalMoves() == 0)    return -fWin + ply;
+            int  standPat = Evaluation.evaluate( mBoard );
+            if (standPat >= beta || ply >= fMaxDepth)    return standPat;
+            if (standPat > alpha)    alpha = standPat;
+
+            for (int m; (m = picker.next()) != Move.fNone; ) {  //only den entries and captures
+                mBoard.makeMove( m );
+                int  score = -quiesce( -beta, -alpha, ply + 1 );
+                mBoard.unmakeMove();
+                if (mAborted)    return 0;
+                if (score > alpha) {
+                    alpha = score;
+                    updatePv( ply, m );
+                    if (alpha >= beta)    break;
+                }
+            }
+            return alpha;
+        }
+        //-------------------------------------------------------------------
+        private void updatePv ( int ply, int m ) {
+            mPv[ ply ][ ply ] = m;
+            for (int j = ply + 1; j < mPvLength[ ply + 1 ]; j++)
+                mPv[ ply ][ j ] = mPv[ ply + 1 ][ j ];
+            mPvLength[ ply ] = mPvLength[ ply + 1 ];
+        }
+    }
+    //-----------------------------------------------------------------------
+    // positions in which the side to move cannot stop an opponent's piece
+    // from entering its den (so that the loss is only seen in quiescence
+    // at depth 1).
+    private static final String  fLostPositions[] = {
+        "2D4/7/7/7/7/7/7/7/l5L r",
+        "L5l/7/7/7/7/7/7/7/4d2 b",
+    };
+    //-----------------------------------------------------------------------
+    // search each of fLostPositions to a few depths, and check that each
+    // search finds the loss.  returns the # of searches that did not.
+    public static int test ( PrintStream out ) {
+        int  failed = 0;
+        for (String fen : fLostPositions) {
+            for (int depth = 1; depth <= 3; depth++) {
+                SearchEngine  e = new SearchEngine( new TranspositionTable( 1 ) );
+                e.setDepthLimit( depth );
+                Result  r = e.search( Notation.fromFen( fen ) );
+                boolean  ok = r.score <= -fWin + fMaxDepth;
+                if (!ok)    failed++;
+                out.println( (ok ? "ok   " : "FAIL ") + fen + " depth " + depth + ": " + r );
+            }
+        }
+        return failed;
+    }
+    //-----------------------------------------------------------------------
+    // search the starting position, e.g., java SearchEngine 10 5000 8
+    // (depth, milliseconds, and threads), printing each iteration.  or, with
+    // java SearchEngine test, run test().
+    public static void main ( String[] args ) {
+        if (args.length > 0 && args[ 0 ].equals( "test" )) {
+            int  failed = test( System.out );
+            System.out.println( failed == 0 ? "all passed" : failed + " failed" );
+            System.exit( failed == 0 ? 0 : 1 );
+        }
+        SearchEngine  e = new SearchEngine();
+        if (args.length > 0)    e.setDepthLimit( Integer.parseInt( args[ 0 ] ) );
+        if (args.length > 1)    e.setTimeLimit( Long.parseLong( args[ 1 ] ) );
+        if (args.length > 2)    e.setThreads( Integer.parseInt( args[ 2 ] ) );
+        e.setOutput( System.out );
+        System.out.println( "best " + Move.toString( e.search( new Board() ).move ) );
+    }
+}
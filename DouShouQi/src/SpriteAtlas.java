@@ -0,0 +1,130 @@
+/* file: SpriteAtlas.java
+ *
+ * the images of the pieces, ready to be drawn: all of them are read and
+ * decoded when the atlas is made (so the first paint is complete), scaled
+ * once to the size of a square on the screen (in device pixels, so they
+ * stay sharp on hidpi screens), and put side by side in one image, the
+ * sheet.  drawing a piece copies its part of the sheet without scaling.
+ *
+ * on a screen, the sheet is also kept in a VolatileImage, which may live
+ * in video memory so that copying from it is done by the graphics card.
+ * its contents can be lost at any time (e.g., when the display mode
+ * changes), so it is validated before each use and refilled from the
+ * sheet when needed.
+ */
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+public class SpriteAtlas {
+
+    private static final String  fNames[] = { "", "Rat", "Cat", "Dog", "Wolf", "Leopard", "Tiger", "Lion", "Elephant" };  //by rank
+    private static final int     fPieces  = Board.bElephant;  //the sheet has one square per piece
+
+    private final BufferedImage  mOriginals[] = new BufferedImage[ fPieces + 1 ];  //as read (by piece)
+    private final int     mSize;       //of a square, in user space
+    private double        mScale = 0;  //device pixels per user space pixel of the sheet
+    private int           mCell  = 0;  //size of a square of the sheet, in device pixels
+    private BufferedImage  mSheet    = null;  //piece p at x = (p - 1) * mCell
+    private VolatileImage  mVolatile = null;  //a copy of mSheet (or null)
+    //-----------------------------------------------------------------------
+    // read the images of the pieces (e.g., dir/rRat.png) to be drawn size x
+    // size.  a missing image is reported, and that piece is not drawn.
+    public SpriteAtlas ( String dir, int size ) {
+        mSize = size;
+        for (int p = Board.rRat; p <= Board.bElephant; p++) {
+            File  f = new File( dir, (p > Board.rElephant ? "b" : "r") + fNames[ rank( p ) ] + ".png" );
+            try {
+                mOriginals[ p ] = ImageIO.read( f );
+            } catch (IOException e) {
+                mOriginals[ p ] = null;
+            }
+            if (mOriginals[ p ] == null)    System.err.println( "cannot read " + f );
+        }
+        prepare( 1 );
+    }
+    //-----------------------------------------------------------------------
+    public int getSize ( ) {
+        return mSize;
+    }
+    //-----------------------------------------------------------------------
+    // draw piece p with its upper left corner at (x,y), in a component
+    // shown with gc (or null, e.g., when printing or off screen).
+    public void draw ( Graphics g, int p, int x, int y, GraphicsConfiguration gc ) {
+        if (p < Board.rRat || p > Board.bElephant || mOriginals[ p ] == null)    return;
+        double  scale = (gc != null) ? gc.getDefaultTransform().getScaleX() : 1;
+        if (scale != mScale)    prepare( scale );
+        int  sx = (p - 1) * mCell;
+        if (gc != null) {
+            for (int tries = 0; tries < 3; tries++) {
+                int  status = (mVolatile == null) ? VolatileImage.IMAGE_INCOMPATIBLE : mVolatile.validate( gc );
+                if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                    if (mVolatile != null)    mVolatile.flush();
+                    mVolatile = gc.createCompatibleVolatileImage( mSheet.getWidth(), mSheet.getHeight(),
+                                                                  Transparency.TRANSLUCENT );
+                    if (mVolatile == null)    break;
+                    fill();
+                } else if (status == VolatileImage.IMAGE_RESTORED) {
+                    fill();
+                }
+                g.drawImage( mVolatile, x, y, x + mSize, y + mSize, sx, 0, sx + mCell, mCell, null );
+                if (!mVolatile.contentsLost())    return;
+            }
+        }
+        g.drawImage( mSheet, x, y, x + mSize, y + mSize, sx, 0, sx + mCell, mCell, null );
+    }
+    //-----------------------------------------------------------------------
+    // scale the images into the sheet for the given # of device pixels per
+    // user space pixel.
+    private void prepare ( double scale ) {
+        mScale = scale;
+        mCell  = (int)Math.round( mSize * scale );
+        mSheet = new BufferedImage( fPieces * mCell, mCell, BufferedImage.TYPE_INT_ARGB_PRE );
+        Graphics2D  g = mSheet.createGraphics();
+        for (int p = Board.rRat; p <= Board.bElephant; p++) {
+            if (mOriginals[ p ] != null)    g.drawImage( scaled( mOriginals[ p ], mCell ), (p - 1) * mCell, 0, null );
+        }
+        g.dispose();
+        if (mVolatile != null)    mVolatile.flush();
+        mVolatile = null;
+    }
+    //-----------------------------------------------------------------------
+    // img scaled to size x size, halving it first while it is more than
+    // twice as large (a single bicubic step would skip pixels).
+    private static BufferedImage scaled ( BufferedImage img, int size ) {
+        BufferedImage  cur = img;
+        int  w = img.getWidth(), h = img.getHeight();
+        do {
+            w = Math.max( size, w / 2 );
+            h = Math.max( size, h / 2 );
+            BufferedImage  next = new BufferedImage( w, h, BufferedImage.TYPE_INT_ARGB_PRE );
+            Graphics2D  g = next.createGraphics();
+            g.setRenderingHint( RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC );
+            g.setRenderingHint( RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY );
+            g.drawImage( cur, 0, 0, w, h, null );
+            g.dispose();
+            cur = next;
+        } while (w != size || h != size);
+        return cur;
+    }
+    //-----------------------------------------------------------------------
+    // copy the sheet into the volatile image.
+    private void fill ( ) {
+        Graphics2D  g = mVolatile.createGraphics();
+        g.setComposite( AlphaComposite.Src );
+        g.drawImage( mSheet, 0, 0, null );
+        g.dispose();
+    }
+    //-----------------------------------------------------------------------
+    private static int rank ( int p ) {
+        return p > Board.rElephant ? p - Board.rElephant : p;
+    }
+}
@@ -0,0 +1,350 @@
+/* file: Tablebase.java
+ *
+ * endgame tablebases: the exact value of every position with few pieces,
+ * as the distance to the end of the game (in plies) with best play.
+ *
+ * positions are grouped by material signature, a bit mask of the pieces on
+ * the board (bit p - 1 for piece p, so red is the low byte and black the
+ * high byte).  the positions of a signature are numbered by the square of
+ * each of its pieces (in order of piece) and the side to move:
+ *   index = ((s1 * 63 + s2) * 63 + ... + sk) * 2 + (black to move ? 1 : 0)
+ * and the table of a signature is one byte per index:
+ *   0           a draw (neither side can force a win)
+ *   1..254      plies to the end of the game + 1; an odd # of plies is a
+ *               win for the side to move, an even # a loss (1 = lost now)
+ *   255         not a position (two pieces on a square, a piece in water
+ *               or in its own den, ...)
+ *
+ * a table is solved by retrograde analysis, one distance at a time: pass n
+ * finds the positions that are won in n plies (n odd: some move reaches a
+ * position lost in n - 1) or lost in n plies (n even: every move reaches a
+ * position won in at most n - 1, one of them in exactly n - 1), until a
+ * pass finds nothing.  captures lead to tables with one piece less, which
+ * are solved first.  each pass is split across threads; a pass only reads
+ * the values of earlier passes, so the threads need no locks.
+ *
+ * each table is written to its own file in the tablebase directory (e.g.,
+ * 0140.dtw for rLi vs. bRa) and mapped into memory when first probed.
+ *
+ * e.g., java Tablebase tb 4 (threads) rLi bRa bCa
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class Tablebase {
+
+    public static final int   fMaxPieces = 4;  //63^4 * 2 bytes = 31.5MB per table
+    public static final int   fMissing   = Integer.MIN_VALUE;  //returned by probe
+
+    public static final long  fMagic = 0x445351544257310aL;  //"DSQTBW1\n"
+
+    private static final int   fHeaderBytes = 16;  //magic, signature, # of pieces
+    private static final int   fSquares     = Board.fRows * Board.fCols;
+    private static final byte  fDraw        = 0;
+    private static final byte  fInvalid     = (byte)255;
+    private static final ByteBuffer  fNone  = ByteBuffer.allocate( 0 );  //no file
+
+    private final File  mDir;
+    private final int   mThreads;
+    //the (mapped) table of each signature probed so far, or fNone (by
+    // signature, so that a probe allocates nothing)
+    private final AtomicReferenceArray<ByteBuffer>  mTables =
+            new AtomicReferenceArray<ByteBuffer>( 1 << Board.bElephant );
+    //-----------------------------------------------------------------------
+    // the tables in dir, which are solved with the given # of threads.
+    public Tablebase ( File dir, int threads ) {
+        mDir = dir;
+        mThreads = Math.max( 1, threads );
+    }
+    //-----------------------------------------------------------------------
+    // the material signature of b.
+    public static int signature ( Board b ) {
+        int  sig = 0;
+        for (int p = Board.rRat; p <= Board.bElephant; p++) {
+            if (b.mPieceSquare[ p ] >= 0)    sig |= 1 << (p - 1);
+        }
+        return sig;
+    }
+    //-----------------------------------------------------------------------
+    // the pieces of a signature, in order.
+    public static int[] pieces ( int signature ) {
+        int  pieces[] = new int[ Integer.bitCount( signature ) ];
+        for (int p = Board.rRat, n = 0; p <= Board.bElephant; p++) {
+            if ((signature & (1 << (p - 1))) != 0)    pieces[ n++ ] = p;
+        }
+        return pieces;
+    }
+    //-----------------------------------------------------------------------
+    // the # of positions (indices) of a table with k pieces.
+    public static int size ( int k ) {
+        int  n = 2;
+        for (int i = 0; i < k; i++)    n *= fSquares;
+        return n;
+    }
+    //-----------------------------------------------------------------------
+    // the index of b in the table of its signature (with the given pieces).
+    public static int index ( Board b, int pieces[] ) {
+        int  i = 0;
+        for (int p : pieces)    i = i * fSquares + b.mPieceSquare[ p ];
+        return 2 * i + (b.mBlacksTurn ? 1 : 0);
+    }
+    // (the same, taking the pieces from the bits of the signature.)
+    public static int index ( Board b, int signature ) {
+        int  i = 0;
+        for (int bits = signature; bits != 0; bits &= bits - 1)
+            i = i * fSquares + b.mPieceSquare[ Integer.numberOfTrailingZeros( bits ) + 1 ];
+        return 2 * i + (b.mBlacksTurn ? 1 : 0);
+    }
+    //-----------------------------------------------------------------------
+    // returns the value of b for the side to move as a search score (see
+    // SearchEngine): fWin - plies for a win, -(fWin - plies) for a loss, 0
+    // for a draw.  returns fMissing if b has too many pieces, or there is no
+    // table for its signature.
+    public int probe ( Board b ) {
+        if (b.mRedCount + b.mBlackCount > fMaxPieces || b.mRedCount == 0 || b.mBlackCount == 0)
+            return fMissing;
+        int  sig = signature( b );
+        ByteBuffer  t = table( sig );
+        if (t == fNone)    return fMissing;
+        int  v = t.get( fHeaderBytes + index( b, sig ) ) & 0xff;
+        if (v == (fInvalid & 0xff))    return fMissing;
+        if (v == fDraw)    return 0;
+        int  plies = v - 1;
+        return (plies & 1) != 0 ? SearchEngine.fWin - plies : -(SearchEngine.fWin - plies);
+    }
+    //-----------------------------------------------------------------------
+    private File file ( int signature ) {
+        return new File( mDir, String.format( "%04x.dtw", signature ) );
+    }
+    //-----------------------------------------------------------------------
+    // the table of a signature, mapped the first time it is needed.
+    private ByteBuffer table ( int signature ) {
+        ByteBuffer  t = mTables.get( signature );
+        if (t != null)    return t;
+        t = fNone;
+        File  f = file( signature );
+        if (f.isFile()) {
+            try {
+                RandomAccessFile  raf = new RandomAccessFile( f, "r" );
+                try {
+                    FileChannel  ch = raf.getChannel();
+                    ByteBuffer   m = ch.map( FileChannel.MapMode.READ_ONLY, 0, ch.size() );
+                    int  k = Integer.bitCount( signature );
+                    if (m.getLong( 0 ) == fMagic && m.getInt( 8 ) == signature
+                            && ch.size() == fHeaderBytes + (long)size( k ))
+                        t = m;
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                t = fNone;  //treated as missing
+            }
+        }
+        mTables.set( signature, t );
+        return t;
+    }
+    //-----------------------------------------------------------------------
+    // solve (and write) the table of a signature, and first every table
+    // with fewer pieces that it leads to.  tables that already exist are
+    // not solved again.
+    public void generate ( int signature ) throws IOException {
+        int  k = Integer.bitCount( signature );
+        if (k > fMaxPieces || (signature & 0xff) == 0 || (signature & 0xff00) == 0)
+            throw new IllegalArgumentException( "not a tablebase signature: " + Integer.toHexString( signature ) );
+        if (table( signature ) != fNone)    return;
+        for (int p : pieces( signature )) {  //every capture
+            int  sub = signature & ~(1 << (p - 1));
+            if ((sub & 0xff) != 0 && (sub & 0xff00) != 0)    generate( sub );
+        }
+
+        byte  values[] = solve( signature );
+        if (!mDir.isDirectory() && !mDir.mkdirs())
+            throw new IOException( "cannot create " + mDir );
+        RandomAccessFile  raf = new RandomAccessFile( file( signature ), "rw" );
+        try {
+            raf.setLength( 0 );
+            ByteBuffer  header = ByteBuffer.allocate( fHeaderBytes );
+            header.putLong( fMagic ).putInt( signature ).putInt( k ).flip();
+            FileChannel  ch = raf.getChannel();
+            ch.write( header );
+            ByteBuffer  body = ByteBuffer.wrap( values );
+            while (body.hasRemaining())    ch.write( body );
+        } finally {
+            raf.close();
+        }
+        mTables.set( signature, null );
+    }
+    //-----------------------------------------------------------------------
+    private byte[] solve ( final int signature ) throws IOException {
+        final int   pieces[] = pieces( signature );
+        final byte  values[] = new byte[ size( pieces.length ) ];
+        ExecutorService  pool = Executors.newFixedThreadPool( mThreads );
+        try {
+            run( pool, new Pass( signature, pieces, values, 0 ) );
+            int  changed = 1;
+            for (int n = 1; n < 254 && changed > 0; n++)
+                changed = run( pool, new Pass( signature, pieces, values, n ) );
+        } finally {
+            pool.shutdown();
+        }
+        return values;
+    }
+    //-----------------------------------------------------------------------
+    // run one pass over all positions, split into slices; returns the # of
+    // positions it solved.
+    private int run ( ExecutorService pool, Pass pass ) throws IOException {
+        int  n = pass.mValues.length;
+        int  slices = mThreads * 16;
+        List<Future<Integer>>  results = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < slices; i++) {
+            final Pass  slice = new Pass( pass, (int)((long)n * i / slices), (int)((long)n * (i + 1) / slices) );
+            results.add( pool.submit( slice ) );
+        }
+        int  changed = 0;
+        try {
+            for (Future<Integer> f : results)    changed += f.get();
+        } catch (Exception e) {
+            throw new IOException( "tablebase pass failed", e );
+        }
+        return changed;
+    }
+
+    //=======================================================================
+    // one pass over the indices [mFrom, mTo) of a table.  pass 0 marks the
+    // invalid positions and the positions that are already lost, and pass n
+    // the positions that end in n plies.
+    private class Pass implements Callable<Integer> {
+        final int   mSignature;
+        final int   mPieces[];
+        final byte  mValues[];
+        final int   mPass;
+        final int   mFrom, mTo;
+
+        Pass ( int signature, int pieces[], byte values[], int pass ) {
+            mSignature = signature;
+            mPieces = pieces;
+            mValues = values;
+            mPass = pass;
+            mFrom = 0;
+            mTo = values.length;
+        }
+        Pass ( Pass p, int from, int to ) {
+            mSignature = p.mSignature;
+            mPieces = p.mPieces;
+            mValues = p.mValues;
+            mPass = p.mPass;
+            mFrom = from;
+            mTo = to;
+        }
+        //-------------------------------------------------------------------
+        public Integer call ( ) {
+            Board  b = new Board();
+            int    moves[] = new int[ Board.fMaxMoves ];
+            int    changed = 0;
+            for (int i = mFrom; i < mTo; i++) {
+                if (mValues[ i ] != fDraw)    continue;  //already solved
+                if (!setup( b, i )) {
+                    if (mPass == 0)    mValues[ i ] = fInvalid;
+                    continue;
+                }
+                int  v = (mPass == 0) ? initial( b, moves ) : solve( b, moves );
+                if (v != fDraw) {
+                    mValues[ i ] = (byte)v;
+                    changed++;
+                }
+            }
+            return changed;
+        }
+        //-------------------------------------------------------------------
+        // set up b as position i; false if it is not a position.
+        private boolean setup ( Board b, int i ) {
+            b.clearPieces();
+            b.mBlacksTurn = (i & 1) != 0;
+            i >>>= 1;
+            for (int k = mPieces.length - 1; k >= 0; k--) {
+                int  s = i % fSquares, p = mPieces[ k ];
+                i /= fSquares;
+                int  t = b.getBoard( s / Board.fCols, s % Board.fCols );
+                if (!CaptureTable.canMove( p, Board.rbNone, t, t ))    return false;  //water, own den
+                if (!b.setPiece( s / Board.fCols, s % Board.fCols, p ))    return false;
+            }
+            //the side to move cannot already have won
+            return !(b.mBlacksTurn ? b.isBlackWinner() : b.isRedWinner());
+        }
+        //-------------------------------------------------------------------
+        private int initial ( Board b, int moves[] ) {
+            if (SearchEngine.isLost( b ))    return 1;
+            int  n = b.generateMoves( b.mBlacksTurn ? Board.Color.Black : Board.Color.Red, moves );
+            return n == 0 ? 1 : fDraw;  //no legal move loses
+        }
+        //-------------------------------------------------------------------
+        // the value of b if it ends in exactly mPass plies, else fDraw.
+        private int solve ( Board b, int moves[] ) {
+            int      n = b.generateMoves( b.mBlacksTurn ? Board.Color.Black : Board.Color.Red, moves );
+            boolean  win = (mPass & 1) != 0;
+            int      longest = 0;
+            for (int j = 0; j < n; j++) {
+                b.makeMove( moves[ j ] );
+                int  v = SearchEngine.isLost( b ) ? 1 : value( b, moves[ j ] );
+                b.unmakeMove();
+                if (v == fDraw || v > mPass)    v = 0;  //not known (yet)
+                if (win) {
+                    if (v == mPass)    return mPass + 1;  //the opponent is lost in mPass - 1
+                } else {
+                    if (v == 0 || (v & 1) != 0)    return fDraw;  //escapes (so far)
+                    longest = Math.max( longest, v );
+                }
+            }
+            return (!win && longest == mPass) ? mPass + 1 : fDraw;
+        }
+        //-------------------------------------------------------------------
+        // the stored value of b, reached by move m.
+        private int value ( Board b, int m ) {
+            if (!Move.isCapture( m ))
+                return mValues[ index( b, mPieces ) ] & 0xff;
+            int  sub = mSignature & ~(1 << (Move.captured( m ) - 1));
+            return table( sub ).get( fHeaderBytes + index( b, sub ) ) & 0xff;
+        }
+    }
+    //-----------------------------------------------------------------------
+    // solve the table of the given pieces (and its subtables), then print
+    // how its positions end.
+    public static void main ( String[] args ) throws IOException {
+        if (args.length < 4) {
+            System.out.println( "usage: java Tablebase dir threads piece piece ... (e.g., rLi bRa)" );
+            return;
+        }
+        Tablebase  tb = new Tablebase( new File( args[ 0 ] ), Integer.parseInt( args[ 1 ] ) );
+        int  sig = 0;
+        for (int a = 2; a < args.length; a++) {
+            int  p = Move.parsePiece( args[ a ] );
+            if (p == Board.rbNone)    throw new IllegalArgumentException( "unknown piece " + args[ a ] );
+            sig |= 1 << (p - 1);
+        }
+        long  start = System.currentTimeMillis();
+        tb.generate( sig );
+        ByteBuffer  t = tb.table( sig );
+        long  wins = 0, losses = 0, draws = 0;
+        int   longest = 0;
+        for (int i = fHeaderBytes; i < t.capacity(); i++) {
+            int  v = t.get( i ) & 0xff;
+            if (v == (fInvalid & 0xff))    continue;
+            if (v == fDraw)              draws++;
+            else if ((v & 1) == 0)       wins++;
+            else                         losses++;
+            if (v != fDraw)    longest = Math.max( longest, v - 1 );
+        }
+        System.out.println( tb.file( sig ) + ": " + wins + " won, " + losses + " lost, " + draws
+                + " drawn, longest " + longest + " plies (" + (System.currentTimeMillis() - start) + " ms)" );
+    }
+}
@@ -0,0 +1,465 @@
+/* file: Tournament.java
+ *
+ * a headless tournament: two engine players (each a SearchEngine or an
+ * MctsEngine with its own settings) play many games against each other,
+ * one game per worker thread, without any gui.  each opening is played
+ * twice, once with each player moving first, so that the openings
+ * themselves do not favor either player.
+ *
+ * every game is appended to the results file as soon as it is over (one
+ * line per game), and a summary (score, elo difference, games per hour) is
+ * printed every 100 games and at the end.  with -archive, the games
+ * themselves (every move) are also appended to a GameArchive, e.g., to
+ * build an OpeningBook from.
+ *
+ * a game is over when a piece enters the opponent's den, a side has no
+ * pieces or no moves left, a player runs out of time (only with a base
+ * time), a position repeats (by default the third time, a draw), or the
+ * maximum # of plies is reached (a draw).
+ *
+ * usage:
+ *   java Tournament [-games 1000] [-threads n] [-maxply 300] [-seed 2016]
+ *                   [-random 8 | -openings file] [-o results.txt]
+ *                   [-archive games.dsq] [-repeat 3] [-repeatloses]
+ *                   [-reversible plies]
+ *                   [-a spec] [-b spec]
+ *   spec is a comma separated list of name=..., tc=base+inc (milliseconds),
+ *   movetime=ms, depth=n, hash=MB, threads=n, and engine=ab (alpha-beta,
+ *   the default) or engine=mcts (hash is then the size of its tree), e.g.,
+ *   -a name=deep,tc=10000+100,hash=16 -b name=tree,engine=mcts,threads=4.
+ *   an openings file has one opening per line, as moves row,col-row,col.
+ *   -repeat n ends a game at the n-th occurrence of a position, as a loss
+ *   for the player who repeated it with -repeatloses, else as a draw;
+ *   -reversible n draws a game after n plies without a capture.
+ */
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class Tournament {
+
+    private static final int  fMovesToGo = 30;  //the time per move is remaining / fMovesToGo + inc
+
+    //-----------------------------------------------------------------------
+    // the settings of one player.
+    public static class Player {
+        public String  mName   = "engine";
+        public long    mBase   = 0;    //ms for the whole game (0 for none)
+        public long    mInc    = 100;  //ms added per move (the time per move without a base)
+        public int     mDepth  = SearchEngine.fMaxDepth;
+        public int     mHashMb = 4;
+        public int     mThreads = 1;
+        public boolean mMcts   = false;  //an MctsEngine, not a SearchEngine
+        //-------------------------------------------------------------------
+        // e.g., "name=deep,tc=10000+100,depth=12,hash=16" or "movetime=50".
+        public static Player parse ( String spec ) {
+            Player  p = new Player();
+            for (String kv : spec.split( "," )) {
+                String  kvs[] = kv.split( "=", 2 );
+                if (kvs.length != 2)    throw new IllegalArgumentException( "bad player setting " + kv );
+                String  k = kvs[ 0 ].trim(), v = kvs[ 1 ].trim();
+                if (k.equals( "name" )) {
+                    p.mName = v;
+                } else if (k.equals( "tc" )) {
+                    int  plus = v.indexOf( '+' );
+                    p.mBase = Long.parseLong( plus < 0 ? v : v.substring( 0, plus ) );
+                    p.mInc  = plus < 0 ? 0 : Long.parseLong( v.substring( plus + 1 ) );
+                } else if (k.equals( "movetime" )) {
+                    p.mBase = 0;
+                    p.mInc  = Long.parseLong( v );
+                } else if (k.equals( "depth" )) {
+                    p.mDepth = Integer.parseInt( v );
+                } else if (k.equals( "hash" )) {
+                    p.mHashMb = Integer.parseInt( v );
+                } else if (k.equals( "threads" )) {
+                    p.mThreads = Integer.parseInt( v );
+                } else if (k.equals( "engine" )) {
+                    if (!v.equals( "ab" ) && !v.equals( "mcts" ))    throw new IllegalArgumentException( "unknown engine " + v );
+                    p.mMcts = v.equals( "mcts" );
+                } else {
+                    throw new IllegalArgumentException( "unknown player setting " + k );
+                }
+            }
+            return p;
+        }
+        //-------------------------------------------------------------------
+        public String toString ( ) {
+            return mName + " (" + (mMcts ? "mcts, " : "")
+                    + (mBase > 0 ? "tc " + mBase + "+" + mInc : "movetime " + mInc)
+                    + (mDepth < SearchEngine.fMaxDepth ? ", depth " + mDepth : "")
+                    + (mThreads > 1 ? ", " + mThreads + " threads" : "") + ")";
+        }
+    }
+    //-----------------------------------------------------------------------
+    // the outcome of one game.  as a line of the results file, the result
+    // is given for black (who moves first): 1-0, 0-1, or 1/2-1/2.
+    public static class Game {
+        public int          mNumber;
+        public int          mOpening;
+        public Player       mBlack, mRed;
+        public Board.Color  mWinner = null;  //null for a draw
+        public String       mReason = "";    //den, material, moves, time, repetition, reversible, or maxply
+        public int          mMoves[] = new int[ 0 ];  //from the starting position
+        public long         mBlackTime, mRedTime;    //ms used
+        public long         mStarted;                //ms since 1970
+
+        public String toString ( ) {
+            return mNumber + "\t" + mOpening + "\t" + mBlack.mName + "\t" + mRed.mName + "\t"
+                    + (mWinner == null ? "1/2-1/2" : mWinner == Board.Color.Black ? "1-0" : "0-1")
+                    + "\t" + mReason + "\t" + mMoves.length + "\t" + mBlackTime + "\t" + mRedTime;
+        }
+        //-------------------------------------------------------------------
+        // the game as a record of a GameArchive.
+        public GameArchive.Record toRecord ( ) {
+            GameArchive.Record  r = new GameArchive.Record();
+            r.mBlack     = mBlack.mName;
+            r.mRed       = mRed.mName;
+            r.mWinner    = mWinner;
+            r.mStarted   = mStarted;
+            r.mBlackTime = (int)Math.min( mBlackTime, Integer.MAX_VALUE );
+            r.mRedTime   = (int)Math.min( mRedTime, Integer.MAX_VALUE );
+            r.setMoves( mMoves, mMoves.length );
+            return r;
+        }
+    }
+    //-----------------------------------------------------------------------
+    private final Player  mA, mB;
+    private final int     mMaxPly;
+    private final List<int[]>  mOpenings;
+    private GameArchive.Writer  mArchive = null;  //where to write the games (if not null)
+    //the repetition rules (see PositionHistory)
+    private PositionHistory.Rule  mRule = PositionHistory.Rule.Draw;
+    private int   mRepetitions = 3;
+    private int   mReversibleLimit = 0;
+    //the engines of a and b for each worker thread, reused from game to
+    // game (a player has either a SearchEngine or an MctsEngine)
+    private final ThreadLocal<SearchEngine[]>  mEngines = new ThreadLocal<SearchEngine[]>() {
+        protected SearchEngine[] initialValue ( ) {
+            return new SearchEngine[] { searchEngine( mA ), searchEngine( mB ) };
+        }
+    };
+    private final ThreadLocal<MctsEngine[]>  mTrees = new ThreadLocal<MctsEngine[]>() {
+        protected MctsEngine[] initialValue ( ) {
+            return new MctsEngine[] { mctsEngine( mA ), mctsEngine( mB ) };
+        }
+    };
+    //-----------------------------------------------------------------------
+    public Tournament ( Player a, Player b, List<int[]> openings, int maxPly ) {
+        mA = a;
+        mB = b;
+        mOpenings = openings;
+        mMaxPly = maxPly;
+    }
+    //-----------------------------------------------------------------------
+    private static SearchEngine searchEngine ( Player p ) {
+        if (p.mMcts)    return null;
+        SearchEngine  e = new SearchEngine( new TranspositionTable( p.mHashMb ) );
+        e.setThreads( p.mThreads );
+        return e;
+    }
+    private static MctsEngine mctsEngine ( Player p ) {
+        if (!p.mMcts)    return null;
+        MctsEngine  e = new MctsEngine( p.mHashMb );
+        e.setThreads( p.mThreads );
+        return e;
+    }
+    //-----------------------------------------------------------------------
+    // also write every game (as it ends) to archive, or not if it is null.
+    public void setArchive ( GameArchive.Writer archive ) {
+        mArchive = archive;
+    }
+    //-----------------------------------------------------------------------
+    // the n-th occurrence of a position ends a game by the rule, and so do
+    // reversibleLimit plies without a capture (unless it is 0).
+    public void setRepetitionRules ( PositionHistory.Rule rule, int repetitions, int reversibleLimit ) {
+        mRule = rule;
+        mRepetitions = repetitions;
+        mReversibleLimit = reversibleLimit;
+    }
+    //-----------------------------------------------------------------------
+    // play game # n: opening n / 2, with a moving first in even games.
+    public Game play ( int n ) {
+        Game  g = new Game();
+        g.mNumber  = n;
+        g.mOpening = (n / 2) % mOpenings.size();
+        boolean  aBlack = (n & 1) == 0;
+        g.mBlack = aBlack ? mA : mB;
+        g.mRed   = aBlack ? mB : mA;
+        g.mStarted = System.currentTimeMillis();
+        SearchEngine  engines[] = mEngines.get();
+        MctsEngine    trees[] = mTrees.get();
+        SearchEngine  black = engines[ aBlack ? 0 : 1 ], red = engines[ aBlack ? 1 : 0 ];
+        MctsEngine    blackTree = trees[ aBlack ? 0 : 1 ], redTree = trees[ aBlack ? 1 : 0 ];
+        for (SearchEngine e : engines) {
+            if (e == null)    continue;
+            e.getTable().clear();
+            e.setDepthLimit( (e == black ? g.mBlack : g.mRed).mDepth );
+        }
+
+        Board  b = new Board();
+        int    moves[] = new int[ mMaxPly ];
+        int    ply = 0;
+        PositionHistory  positions = new PositionHistory( mMaxPly + 1 );
+        positions.setRule( mRule );
+        positions.setRepetitions( mRepetitions );
+        positions.setReversibleLimit( mReversibleLimit );
+        positions.clear( b );
+        for (SearchEngine e : engines) {
+            if (e != null)    e.setPositions( positions );
+        }
+        for (int m : mOpenings.get( g.mOpening )) {
+            if (ply == mMaxPly || SearchEngine.isLost( b ) || !b.isLegal( m ))    break;
+            b.makeMove( m );
+            positions.push( b, m );
+            moves[ ply++ ] = m;
+        }
+        long  clock[] = { g.mBlack.mBase, g.mRed.mBase };  //ms left
+        while (true) {
+            if (b.isGameOver()) {
+                g.mWinner = b.isRedWinner() ? Board.Color.Red : Board.Color.Black;
+                g.mReason = (b.countRed() == 0 || b.countBlack() == 0) ? "material" : "den";
+                break;
+            }
+            if (positions.isOver()) {
+                g.mWinner = positions.winner( b );
+                g.mReason = positions.isReversibleLimit() ? "reversible" : "repetition";
+                break;
+            }
+            if (ply >= mMaxPly) {
+                g.mReason = "maxply";
+                break;
+            }
+            int           side = b.mBlacksTurn ? 0 : 1;
+            Player        p = b.mBlacksTurn ? g.mBlack : g.mRed;
+            long  limit = p.mBase > 0 ? Math.max( 1, clock[ side ] / fMovesToGo + p.mInc )
+                                      : Math.max( 1, p.mInc );
+            long  start = System.currentTimeMillis();
+            int   m;
+            if (p.mMcts) {
+                MctsEngine  e = b.mBlacksTurn ? blackTree : redTree;
+                e.setTimeLimit( limit );
+                m = e.search( b ).move;
+            } else {
+                SearchEngine  e = b.mBlacksTurn ? black : red;
+                e.setTimeLimit( limit );
+                m = e.search( b ).move;
+            }
+            long  used = System.currentTimeMillis() - start;
+            if (b.mBlacksTurn)    g.mBlackTime += used;
+            else                  g.mRedTime   += used;
+            if (m == Move.fNone) {  //no legal move loses
+                g.mWinner = b.mBlacksTurn ? Board.Color.Red : Board.Color.Black;
+                g.mReason = "moves";
+                break;
+            }
+            if (p.mBase > 0) {
+                clock[ side ] += p.mInc - used;
+                if (clock[ side ] < 0) {
+                    g.mWinner = b.mBlacksTurn ? Board.Color.Red : Board.Color.Black;
+                    g.mReason = "time";
+                    break;
+                }
+            }
+            b.makeMove( m );
+            positions.push( b, m );
+            moves[ ply++ ] = m;
+        }
+        g.mMoves = Arrays.copyOf( moves, ply );
+        return g;
+    }
+    //-----------------------------------------------------------------------
+    // play games on a pool of threads, writing each game to out (and the
+    // archive) as soon as it ends.  returns the games in the order in which
+    // they ended.
+    public List<Game> run ( int games, int threads, PrintWriter out )
+            throws InterruptedException, IOException {
+        ExecutorService  pool = Executors.newFixedThreadPool( Math.max( 1, threads ) );
+        CompletionService<Game>  done = new ExecutorCompletionService<Game>( pool );
+        for (int i = 0; i < games; i++) {
+            final int  n = i;
+            done.submit( new Callable<Game>() {
+                public Game call ( ) {
+                    return play( n );
+                }
+            } );
+        }
+        List<Game>  results = new ArrayList<Game>( games );
+        long  start = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < games; i++) {
+                Game  g = done.take().get();
+                results.add( g );
+                if (out != null) {
+                    out.println( g );
+                    out.flush();
+                }
+                if (mArchive != null)    mArchive.write( g.toRecord() );
+                if (results.size() % 100 == 0 && results.size() < games)
+                    System.out.println( summary( results, System.currentTimeMillis() - start ) );
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException( "game failed", e.getCause() );
+        } finally {
+            pool.shutdownNow();
+        }
+        System.out.println( summary( results, System.currentTimeMillis() - start ) );
+        return results;
+    }
+    //-----------------------------------------------------------------------
+    // the score of player a over the games, the elo difference (with a 95%
+    // margin), how the games ended, and the # of games per hour.
+    public String summary ( List<Game> games, long millis ) {
+        int     wins = 0, losses = 0, draws = 0;
+        long    plies = 0;
+        String  names[] = { "den", "material", "moves", "time", "repetition", "reversible", "maxply" };
+        int     reasons[] = new int[ names.length ];
+        for (Game g : games) {
+            Board.Color  aColor = g.mBlack == mA ? Board.Color.Black : Board.Color.Red;
+            if (g.mWinner == null)           draws++;
+            else if (g.mWinner == aColor)    wins++;
+            else                             losses++;
+            plies += g.mMoves.length;
+            reasons[ Arrays.asList( names ).indexOf( g.mReason ) ]++;
+        }
+        int     n = Math.max( 1, games.size() );
+        double  score = (wins + 0.5 * draws) / n;
+        double  var = (wins * (1 - score) * (1 - score) + draws * (0.5 - score) * (0.5 - score)
+                       + losses * score * score) / n;
+        double  margin = 1.96 * Math.sqrt( var / n );
+        StringBuilder  sb = new StringBuilder();
+        sb.append( String.format( "%d games: %s %d - %d - %d %s, score %.1f%%, elo %+.0f +- %.0f, ",
+                games.size(), mA.mName, wins, draws, losses, mB.mName, 100 * score,
+                elo( score ), (elo( score + margin ) - elo( score - margin )) / 2 ) );
+        for (int i = 0; i < names.length; i++)    sb.append( names[ i ] ).append( ' ' ).append( reasons[ i ] ).append( ", " );
+        sb.append( String.format( "%.1f plies/game, %.0f games/hour",
+                (double)plies / n, games.size() * 3600000.0 / Math.max( 1, millis ) ) );
+        return sb.toString();
+    }
+    //-----------------------------------------------------------------------
+    private static double elo ( double score ) {
+        score = Math.max( 1e-6, Math.min( 1 - 1e-6, score ) );
+        return -400 * Math.log10( 1 / score - 1 );
+    }
+    //-----------------------------------------------------------------------
+    // n openings of the given # of random (legal) plies from the start.
+    public static List<int[]> randomOpenings ( int n, int plies, long seed ) {
+        Random  rnd = new Random( seed );
+        List<int[]>  openings = new ArrayList<int[]>( n );
+        int  moves[] = new int[ Board.fMaxMoves ];
+        for (int i = 0; i < n; i++) {
+            Board  b = new Board();
+            int    opening[] = new int[ plies ];
+            int    k = 0;
+            for (; k < plies && !b.isGameOver(); k++) {
+                int  count = b.generateMoves( b.mBlacksTurn ? Board.Color.Black : Board.Color.Red, moves );
+                if (count == 0)    break;
+                opening[ k ] = moves[ rnd.nextInt( count ) ];
+                b.makeMove( opening[ k ] );
+            }
+            openings.add( Arrays.copyOf( opening, k ) );
+        }
+        return openings;
+    }
+    //-----------------------------------------------------------------------
+    // read openings, one per line, as moves "row,col-row,col" separated by
+    // blanks.  blank lines and lines starting with # are skipped.
+    public static List<int[]> readOpenings ( String file ) throws IOException {
+        List<int[]>  openings = new ArrayList<int[]>();
+        BufferedReader  in = new BufferedReader( new FileReader( file ) );
+        try {
+            String  line;
+            int     lineNo = 0;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith( "#" ))    continue;
+                Board  b = new Board();
+                String  tokens[] = line.split( "\\s+" );
+                int     opening[] = new int[ tokens.length ];
+                for (int i = 0; i < tokens.length; i++) {
+                    opening[ i ] = parseMove( b, tokens[ i ] );
+                    if (opening[ i ] == Move.fNone)
+                        throw new IOException( file + ":" + lineNo + ": illegal move " + tokens[ i ] );
+                    b.makeMove( opening[ i ] );
+                }
+                openings.add( opening );
+            }
+        } finally {
+            in.close();
+        }
+        return openings;
+    }
+    //-----------------------------------------------------------------------
+    // the legal move of b given as "row,col-row,col", or Move.fNone.
+    private static int parseMove ( Board b, String s ) {
+        String  sq[] = s.split( "[-x]" );
+        if (sq.length != 2)    return Move.fNone;
+        try {
+            String  from[] = sq[ 0 ].split( "," ), to[] = sq[ 1 ].split( "," );
+            int  fr = Integer.parseInt( from[ 0 ] ), fc = Integer.parseInt( from[ 1 ] );
+            int  tr = Integer.parseInt( to[ 0 ] ),   tc = Integer.parseInt( to[ 1 ] );
+            int  m = Move.encode( fr * Board.fCols + fc, tr * Board.fCols + tc,
+                                  b.getPiece( fr, fc ), b.getPiece( tr, tc ) );
+            return b.isLegal( m ) ? m : Move.fNone;
+        } catch (RuntimeException e) {  //not numbers, or missing a part
+            return Move.fNone;
+        }
+    }
+    //-----------------------------------------------------------------------
+    public static void main ( String[] args ) throws Exception {
+        int     games = 1000, threads = Runtime.getRuntime().availableProcessors();
+        int     maxPly = 300, randomPlies = 8;
+        long    seed = 2016;
+        String  openingFile = null, results = "results.txt", archive = null;
+        int     repetitions = 3, reversible = 0;
+        PositionHistory.Rule  rule = PositionHistory.Rule.Draw;
+        Player  a = Player.parse( "name=a" ), b = Player.parse( "name=b" );
+        for (int i = 0; i < args.length; i++) {
+            if (args[ i ].equals( "-games" ))           games = Integer.parseInt( args[ ++i ] );
+            else if (args[ i ].equals( "-threads" ))    threads = Integer.parseInt( args[ ++i ] );
+            else if (args[ i ].equals( "-maxply" ))     maxPly = Integer.parseInt( args[ ++i ] );
+            else if (args[ i ].equals( "-seed" ))       seed = Long.parseLong( args[ ++i ] );
+            else if (args[ i ].equals( "-random" ))     randomPlies = Integer.parseInt( args[ ++i ] );
+            else if (args[ i ].equals( "-openings" ))   openingFile = args[ ++i ];
+            else if (args[ i ].equals( "-o" ))          results = args[ ++i ];
+            else if (args[ i ].equals( "-archive" ))    archive = args[ ++i ];
+            else if (args[ i ].equals( "-repeat" ))     repetitions = Integer.parseInt( args[ ++i ] );
+            else if (args[ i ].equals( "-repeatloses" ))    rule = PositionHistory.Rule.RepeaterLoses;
+            else if (args[ i ].equals( "-reversible" ))     reversible = Integer.parseInt( args[ ++i ] );
+            else if (args[ i ].equals( "-a" ))          a = Player.parse( "name=a," + args[ ++i ] );
+            else if (args[ i ].equals( "-b" ))          b = Player.parse( "name=b," + args[ ++i ] );
+            else    throw new IllegalArgumentException( "unknown option " + args[ i ] );
+        }
+        List<int[]>  openings = (openingFile != null) ? readOpenings( openingFile )
+                                                      : randomOpenings( (games + 1) / 2, randomPlies, seed );
+        if (openings.isEmpty())    openings.add( new int[ 0 ] );
+
+        System.out.println( a + " vs. " + b + ": " + games + " games on " + threads + " threads, "
+                + openings.size() + " openings, max " + maxPly + " plies" );
+        PrintWriter  out = new PrintWriter( new FileWriter( results ) );
+        out.println( "#game\topening\tblack\tred\tresult\treason\tplies\tblack ms\tred ms" );
+        GameArchive.Writer  writer = (archive != null) ? new GameArchive.Writer( new File( archive ), true ) : null;
+        try {
+            Tournament  t = new Tournament( a, b, openings, maxPly );
+            t.setArchive( writer );
+            t.setRepetitionRules( rule, repetitions, reversible );
+            t.run( games, threads, out );
+        } finally {
+            out.close();
+            if (writer != null)    writer.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/* file: TranspositionTable.java
+ *
+ * a fixed-size hash table of search results keyed by Board.getKey().
+ * the entries live off the java heap (in direct ByteBuffers), so even a
+ * table of many gigabytes adds nothing for the garbage collector to scan.
+ *
+ * the table is shared by any number of search threads without locks.  an
+ * entry is two longs, (key ^ data) and data.  a reader accepts an entry
+ * only if xor'ing the two longs it read gives back its key, so an entry
+ * torn by concurrent writers is simply seen as a miss.
+ *
+ * entries are grouped into 64-byte buckets (one cache line) of 4 entries.
+ * a new result replaces the entry for the same key, else an empty entry,
+ * else the entry that is least worth keeping: shallow results, and
+ * results left over from earlier searches (older age), go first.
+ *
+ * layout of data:
+ *   bits  0..21  best move (see Move)
+ *   bits 22..37  score (signed 16 bits)
+ *   bits 38..45  depth
+ *   bits 46..47  bound (fLower, fUpper, or fExact; never 0 for a stored entry)
+ *   bits 48..53  age of the search that stored it
+ */
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class TranspositionTable {
+
+    public static final int  fLower = 1;  //score is a lower bound (fail high)
+    public static final int  fUpper = 2;  //score is an upper bound (fail low)
+    public static final int  fExact = 3;
+
+    private static final int  fEntryBytes    = 16;
+    private static final int  fBucketEntries = 4;
+    private static final int  fBucketBytes   = fEntryBytes * fBucketEntries;
+    private static final int  fChunkBytes    = 1 << 30;  //per ByteBuffer
+    private static final int  fChunkShift    = 30 - 6;   //log2(buckets per chunk)
+
+    private final ByteBuffer  mChunks[];
+    private final long        mBucketMask;  //# of buckets - 1 (a power of 2)
+    private volatile int      mAge = 0;
+    //-----------------------------------------------------------------------
+    // allocate a table of (at most) the given size, rounded down to a power
+    // of 2.  the memory is allocated once, here.
+    public TranspositionTable ( long megabytes ) {
+        long  bytes = Long.highestOneBit( Math.max( 1, megabytes ) << 20 );
+        long  buckets = bytes / fBucketBytes;
+        mBucketMask = buckets - 1;
+        int  chunks = (int)Math.max( 1, bytes / fChunkBytes );
+        mChunks = new ByteBuffer[ chunks ];
+        for (int i = 0; i < chunks; i++) {
+            mChunks[ i ] = ByteBuffer.allocateDirect( (int)Math.min( bytes, fChunkBytes ) )
+                                     .order( ByteOrder.nativeOrder() );
+        }
+    }
+    //-----------------------------------------------------------------------
+    // the size of the table in bytes.
+    public long size ( ) {
+        return (mBucketMask + 1) * fBucketBytes;
+    }
+    //-----------------------------------------------------------------------
+    // forget everything (not while a search is using the table).
+    public void clear ( ) {
+        for (ByteBuffer b : mChunks) {
+            for (int i = 0; i < b.capacity(); i += 8)    b.putLong( i, 0 );
+        }
+        mAge = 0;
+    }
+    //-----------------------------------------------------------------------
+    // call at the start of each search so that entries from earlier
+    // searches are replaced first.
+    public void newSearch ( ) {
+        mAge = (mAge + 1) & 63;
+    }
+    //-----------------------------------------------------------------------
+    // returns the data stored for key, or 0 if there is none.
+    public long probe ( long key ) {
+        ByteBuffer  b = chunk( key );
+        int  base = offset( key );
+        for (int i = 0; i < fBucketEntries; i++) {
+            int   at = base + i * fEntryBytes;
+            long  data = b.getLong( at + 8 );
+            if ((b.getLong( at ) ^ data) == key && data != 0)    return data;
+        }
+        return 0;
+    }
+    //-----------------------------------------------------------------------
+    // remember the result of searching key to depth.
+    public void store ( long key, int move, int score, int depth, int bound ) {
+        ByteBuffer  b = chunk( key );
+        int  base = offset( key );
+        int  age = mAge;
+        int  victim = base, victimWorth = Integer.MAX_VALUE;
+        for (int i = 0; i < fBucketEntries; i++) {
+            int   at = base + i * fEntryBytes;
+            long  data = b.getLong( at + 8 );
+            if ((b.getLong( at ) ^ data) == key) {  //same position
+                if (move == Move.fNone)    move = move( data );
+                victim = at;
+                break;
+            }
+            int  worth = (data == 0) ? Integer.MIN_VALUE
+                                     : depth( data ) - 8 * ((age - age( data )) & 63);
+            if (worth < victimWorth) {
+                victim = at;
+                victimWorth = worth;
+            }
+        }
+        long  data = (move & 0x3fffffL)
+                   | ((score & 0xffffL) << 22)
+                   | ((long)(Math.max( 0, Math.min( depth, 255 ) )) << 38)
+                   | ((long)bound << 46)
+                   | ((long)age << 48);
+        b.putLong( victim, key ^ data );
+        b.putLong( victim + 8, data );
+    }
+    //-----------------------------------------------------------------------
+    // decode the data returned by probe.
+    public static int move  ( long data )  { return (int)(data & 0x3fffff);        }
+    public static int score ( long data )  { return (short)(data >>> 22);          }
+    public static int depth ( long data )  { return (int)((data >>> 38) & 0xff);   }
+    public static int bound ( long data )  { return (int)((data >>> 46) & 3);      }
+    public static int age   ( long data )  { return (int)((data >>> 48) & 63);     }
+    //-----------------------------------------------------------------------
+    // permille of a sample of entries that were stored by the current search.
+    public int hashfull ( ) {
+        int  used = 0, age = mAge;
+        for (int i = 0; i < 1000; i++) {
+            long  data = mChunks[ 0 ].getLong( i * fEntryBytes + 8 );
+            if (data != 0 && age( data ) == age)    used++;
+        }
+        return used;
+    }
+    //-----------------------------------------------------------------------
+    private ByteBuffer chunk ( long key ) {
+        return mChunks[ (int)((key & mBucketMask) >>> fChunkShift) ];
+    }
+    private int offset ( long key ) {
+        return (int)(key & mBucketMask & ((1L << fChunkShift) - 1)) * fBucketBytes;
+    }
+}